@@ -5,7 +5,7 @@ DEL TNT.jar
 CD ..
 jar cf TNT\src\TNT.jar TNT\src\*.java TNT\docs TNT\LICENSE TNT\VERSION %ReadMe%
 CD TNT\src
-javac *.java
+javac --add-modules jdk.incubator.vector *.java
 jar ufe TNT.jar Main *.class
 CD ..
 DEL src\*.class
@@ -4,7 +4,7 @@ rm -f TNT.jar
 cd ..
 jar cf $src/TNT.jar $src/*.java TNT/docs TNT/LICENSE TNT/VERSION TNT/README.md
 cd $src
-javac *.java
+javac --add-modules jdk.incubator.vector *.java
 jar ufe TNT.jar Main *.class
 cd ..
 rm src/*.class
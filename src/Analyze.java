@@ -15,13 +15,11 @@ GNU General Public License for more details.
 */
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
-import javax.xml.parsers.*;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.*;
+import javax.xml.stream.*;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -33,254 +31,269 @@ The xml config code here isn't entirely user friendly but that's not really my
 fault. It's just the way the standard libs for xml are. Plus, the program is
 handling a huge amount of data in single file so I think it is decent.
 
+The config is streamed out w/ an XMLStreamWriter as it's made, so no DOM of the
+whole file is ever held in memory. The output is the same, byte for byte, as
+the indenting Transformer that used to write it: same declaration, 2 space
+indents, <empty/> elements & &#127;-&#159; written as char references.
+
 Development Priority: HIGH
 */
 public class Analyze
 {
 // class variables
-private static NORI nf;
-private static Document cfg;
-private static int specsIdx=0,numFrames,numPlanes;
+private NORI nf;
+private XMLStreamWriter cfg;
+private int depth;// for the indents
+private static final String nl = System.lineSeparator();
+private PrintStream out;
+private int specsIdx=0,numFrames,numPlanes;
 
 // constructor for Analyze class
-public Analyze(byte[] ba, File nFile, boolean createConfig)
+public Analyze(ByteBuffer bb, File nFile, boolean createConfig, PrintStream ps)
 {
+    out = ps;
     nf = new NORI();
     nf.setNORI(nFile);
     try
     {
-        // Wraps byte array in litte-endian bytebuffer
-        ByteBuffer bb = ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
         // Analyze the file
-        Analyzer a = new Analyzer(bb,nf,false);
+        Analyzer a = new Analyzer(bb,nf,false,out);
 
         // make NORI config file
         if(createConfig)
         {
             nf.fixNORI(false);
-            writeCfg();
-            if(nf.hasPalette==1)
-            {
-                File palFile = new File(nf.dir+nf.name+"_pal.bin");
-                Files.write(palFile.toPath(),nf.palBytes);
-            }
+            if(Options.binCfg)
+                BinCfg.write(nf,new File(nf.dir+nf.name+".bcfg"));
+            else
+                writeCfgFiles();
         }
     }
     catch(Exception ex)
     {
         out.println("Error in (OptA):");
-        ex.printStackTrace(System.out);
+        ex.printStackTrace(out);
+    }
+}
+
+// constructor for Analyze class, for a NORI model that is already loaded
+private Analyze(NORI NF, PrintStream ps)
+{
+    nf = NF;
+    out = ps;
+}
+
+// Writes the XML config (& palette file) of a NORI model, see BinCfg
+static void saveCfg(NORI nf, PrintStream ps) throws IOException
+{
+    new Analyze(nf,ps).writeCfgFiles();
+}
+
+// The config file, plus the palette file if there is a palette
+private void writeCfgFiles() throws IOException
+{
+    writeCfg();
+    if(nf.hasPalette==1 && nf.palBytes!=null)
+    {
+        File palFile = new File(nf.dir+nf.name+"_pal.bin");
+        Files.write(palFile.toPath(),nf.palBytes);
     }
 }
 
 // Prepare and write NORI config file
-private static void writeCfg()
+private void writeCfg()
 {
-    try
+    Path config = Paths.get(nf.dir+nf.name+".cfg");
+    try(FileChannel fc = FileChannel.open(config,StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.WRITE);
+        OutputStream os = new BufferedOutputStream(
+            Channels.newOutputStream(fc),1<<16))
     {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = dbf.newDocumentBuilder();
-        // Set xml config document to global static var: cfg
-        cfg = docBuilder.newDocument();
+        // The writer's own declaration has no standalone="no", so it's done here
+        String decl = "<?xml version=\"1.0\" encoding=\"UTF-8\" "+
+                      "standalone=\"no\"?>"+nl;
+        os.write(decl.getBytes(StandardCharsets.UTF_8));
+        cfg = XMLOutputFactory.newInstance().createXMLStreamWriter(os,"UTF-8");
+        depth = 0;
         // Root Element
-        Element root = cfg.createElement("NORI");
-        root.setAttribute("name",nf.name);
-        cfg.appendChild(root);
+        startE("NORI");
+        cfg.writeAttribute("name",nf.name);
         // NORI Header Elements
-        Element noriHdr = cfg.createElement("NORI_HDR");
-        root.appendChild(noriHdr);
+        startE("NORI_HDR");
         // NORI Header SubElements
-        setNoriHdrVars(noriHdr);
+        setNoriHdrVars();
+        endE();
         // GAWI Elements
-        Element gawi = cfg.createElement("GAWI");
-        root.appendChild(gawi);
+        startE("GAWI");
         // GAWI Header Elements
-        Element gawiHdr = cfg.createElement("GAWI_HDR");
-        gawi.appendChild(gawiHdr);
+        startE("GAWI_HDR");
         // NORI Header SubElements
-        setGawiHdrVars(gawiHdr);
+        setGawiHdrVars();
+        endE();
         // Palette Elements
         if(nf.hasPalette==1)
         {
-            Element pal = cfg.createElement("PAL");
-            gawi.appendChild(pal);
-            setPaletteVars(pal);
+            startE("PAL");
+            setPaletteVars();
+            endE();
         }
         // BMP Offset Elements
         for(int i=0; i < nf.bmpStructs; i++)
         {
-            Element bmpOff = cfg.createElement(nf.xml_tag[31]);
-            bmpOff.setAttribute("id",""+i);
-            bmpOff.appendChild(cfg.createTextNode(""+nf.bmpOffsets[i]));
-            gawi.appendChild(bmpOff);
+            mkSubE(nf.xml_tag[31], "id", i, nf.bmpOffsets[i]);
         }
         // BMP Data Elements
         for(int i=0; i < nf.bmpStructs; i++)
         {
-            Element bmp = cfg.createElement("BMP");
-            bmp.setAttribute("id",""+i);
-            bmp.setAttribute("offset",""+nf.bpos+"+"+nf.bmpOffsets[i]);
-            gawi.appendChild(bmp);
+            startE("BMP");
+            cfg.writeAttribute("id",""+i);
+            cfg.writeAttribute("offset",""+nf.bpos+"+"+nf.bmpOffsets[i]);
             // BMP SubElements
-            setBmpSpecs(bmp,i);
+            setBmpSpecs(i);
+            endE();
         }
+        endE();
         // Animation Offset Elements
         for(int a=0; a < nf.anims; a++)
         {
-            Element animOff = cfg.createElement(nf.xml_tag[39]);
-            animOff.setAttribute("id",""+a);
-            animOff.appendChild(cfg.createTextNode(""+nf.animOffsets[a]));
-            root.appendChild(animOff);
+            mkSubE(nf.xml_tag[39], "id", a, nf.animOffsets[a]);
         }
         // Animation Data Elements
         for(int a=0; a < nf.anims; a++)
         {
-            Element anim = cfg.createElement("ANIM");
-            anim.setAttribute("id",""+a);
-            anim.setAttribute("offset",""+nf.apos+"+"+nf.animOffsets[a]);
-            root.appendChild(anim);
+            startE("ANIM");
+            cfg.writeAttribute("id",""+a);
+            cfg.writeAttribute("offset",""+nf.apos+"+"+nf.animOffsets[a]);
             // Anim SubElements
-            Element name = cfg.createElement(nf.xml_tag[40]);
-            name.appendChild(cfg.createTextNode(nf.title[a]));
-            anim.appendChild(name);
+            mkSubE(nf.xml_tag[40], nf.title[a]);
             numFrames = nf.numFrames[a];
-            mkSubE(anim, nf.xml_tag[41], numFrames);
-            setFrameOffsets(anim,a);
+            mkSubE(nf.xml_tag[41], numFrames);
+            setFrameOffsets(a);
             // Frame Data and SubElements
-            setFrames(anim,a);
+            setFrames(a);
+            endE();
         }
-
-        // Prep xml data
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer t = tf.newTransformer();
-        t.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-        t.setOutputProperty(OutputKeys.INDENT, "yes");
-        String indentAmount = "{http://xml.apache.org/xslt}indent-amount";
-        t.setOutputProperty(indentAmount,"2");
-        // Output xml config file
-        DOMSource src = new DOMSource(cfg);
-        File config = new File(nf.dir+nf.name+".cfg");
-        StreamResult file = new StreamResult(config);
-        t.transform(src, file);
+        endE();
+        cfg.writeCharacters(nl);
+        cfg.close();// leaves os open, it gets closed (& flushed) below
 
         }catch(Exception ex)
         {
             out.println("Error in (mkCfg):");
-            ex.printStackTrace(System.out);
+            ex.printStackTrace(out);
         }
 }
 
-private static void setNoriHdrVars(Element e)
+private void setNoriHdrVars() throws XMLStreamException
 {
-    mkSubE(e, nf.xml_tag[0], nf.fsig);
-    mkSubE(e, nf.xml_tag[1], nf.noriVer);
-    mkSubE(e, nf.xml_tag[2], nf.nParam1);
-    mkSubE(e, nf.xml_tag[3], nf.nParam2);
-    mkSubE(e, nf.xml_tag[4], nf.nParam3);
-    mkSubE(e, nf.xml_tag[5], nf.nParam4);
-    mkSubE(e, nf.xml_tag[6], nf.nParam5);
-    mkSubE(e, nf.xml_tag[7], nf.anims);
-    mkSubE(e, nf.xml_tag[8], nf.woGawi);
-    mkSubE(e, nf.xml_tag[9], nf.fsize);
+    mkSubE(nf.xml_tag[0], nf.fsig);
+    mkSubE(nf.xml_tag[1], nf.noriVer);
+    mkSubE(nf.xml_tag[2], nf.nParam1);
+    mkSubE(nf.xml_tag[3], nf.nParam2);
+    mkSubE(nf.xml_tag[4], nf.nParam3);
+    mkSubE(nf.xml_tag[5], nf.nParam4);
+    mkSubE(nf.xml_tag[6], nf.nParam5);
+    mkSubE(nf.xml_tag[7], nf.anims);
+    mkSubE(nf.xml_tag[8], nf.woGawi);
+    mkSubE(nf.xml_tag[9], nf.fsize);
 }
 
-private static void setGawiHdrVars(Element e)
+private void setGawiHdrVars() throws XMLStreamException
 {
-    mkSubE(e, nf.xml_tag[10], nf.gsig);
-    mkSubE(e, nf.xml_tag[11], nf.gawiVer);
-    mkSubE(e, nf.xml_tag[12], nf.bpp);
-    mkSubE(e, nf.xml_tag[13], nf.compressed);
-    mkSubE(e, nf.xml_tag[14], nf.hasPalette);
-    mkSubE(e, nf.xml_tag[15], nf.gParam4);
-    mkSubE(e, nf.xml_tag[16], nf.gParam5);
-    mkSubE(e, nf.xml_tag[17], nf.gParam6);
-    mkSubE(e, nf.xml_tag[18], nf.gParam7);
-    mkSubE(e, nf.xml_tag[19], nf.bmpStructs);
-    mkSubE(e, nf.xml_tag[20], nf.gsize);
+    mkSubE(nf.xml_tag[10], nf.gsig);
+    mkSubE(nf.xml_tag[11], nf.gawiVer);
+    mkSubE(nf.xml_tag[12], nf.bpp);
+    mkSubE(nf.xml_tag[13], nf.compressed);
+    mkSubE(nf.xml_tag[14], nf.hasPalette);
+    mkSubE(nf.xml_tag[15], nf.gParam4);
+    mkSubE(nf.xml_tag[16], nf.gParam5);
+    mkSubE(nf.xml_tag[17], nf.gParam6);
+    mkSubE(nf.xml_tag[18], nf.gParam7);
+    mkSubE(nf.xml_tag[19], nf.bmpStructs);
+    mkSubE(nf.xml_tag[20], nf.gsize);
 }
 
-private static void setPaletteVars(Element e)
+private void setPaletteVars() throws XMLStreamException
 {
-    mkSubE(e, nf.xml_tag[21], nf.psig);
-    mkSubE(e, nf.xml_tag[22], nf.palVer);
-    mkSubE(e, nf.xml_tag[23], nf.pParam1);
-    mkSubE(e, nf.xml_tag[24], nf.pParam2);
-    mkSubE(e, nf.xml_tag[25], nf.pParam3);
-    mkSubE(e, nf.xml_tag[26], nf.pParam4);
-    mkSubE(e, nf.xml_tag[27], nf.divided);
-    mkSubE(e, nf.xml_tag[28], nf.psize);
-    mkSubE(e, "RGB24DATA", "");
+    mkSubE(nf.xml_tag[21], nf.psig);
+    mkSubE(nf.xml_tag[22], nf.palVer);
+    mkSubE(nf.xml_tag[23], nf.pParam1);
+    mkSubE(nf.xml_tag[24], nf.pParam2);
+    mkSubE(nf.xml_tag[25], nf.pParam3);
+    mkSubE(nf.xml_tag[26], nf.pParam4);
+    mkSubE(nf.xml_tag[27], nf.divided);
+    mkSubE(nf.xml_tag[28], nf.psize);
+    mkSubE("RGB24DATA", "");
     if(nf.psize==808)
     {
-        mkSubE(e, nf.xml_tag[29], nf.mainS);
-        mkSubE(e, nf.xml_tag[30], nf.mainE);
+        mkSubE(nf.xml_tag[29], nf.mainS);
+        mkSubE(nf.xml_tag[30], nf.mainE);
     }
 }
 
-private static void setBmpSpecs(Element bmp, int i)
+private void setBmpSpecs(int i) throws XMLStreamException
 {
-    mkSubE(bmp, nf.xml_tag[32], nf.bmpCount[i]);
+    mkSubE(nf.xml_tag[32], nf.bmpCount[i]);
     boolean subBMP = (nf.bmpCount[i] > 1);
     for(int x=0; x < nf.bmpCount[i]; x++)
     {
-        if(subBMP) mkSubE(bmp, String.format("SubBMP_%02d",x+1), "");
-        mkSubE(bmp, nf.xml_tag[33], nf.bmpSpecs[specsIdx][0]);
-        mkSubE(bmp, nf.xml_tag[34], nf.bmpSpecs[specsIdx][1]);
-        mkSubE(bmp, nf.xml_tag[35], nf.bmpSpecs[specsIdx][2]);
-        mkSubE(bmp, nf.xml_tag[36], nf.bmpSpecs[specsIdx][3]);
-        mkSubE(bmp, nf.xml_tag[37], nf.bmpSpecs[specsIdx][4]);
-        mkSubE(bmp, nf.xml_tag[38], nf.bmpSpecs[specsIdx][5]);
-        mkSubE(bmp, "RGB"+nf.bpp+"DATA", "");
+        if(subBMP) mkSubE(String.format("SubBMP_%02d",x+1), "");
+        mkSubE(nf.xml_tag[33], nf.bmpSpecs[specsIdx][0]);
+        mkSubE(nf.xml_tag[34], nf.bmpSpecs[specsIdx][1]);
+        mkSubE(nf.xml_tag[35], nf.bmpSpecs[specsIdx][2]);
+        mkSubE(nf.xml_tag[36], nf.bmpSpecs[specsIdx][3]);
+        mkSubE(nf.xml_tag[37], nf.bmpSpecs[specsIdx][4]);
+        mkSubE(nf.xml_tag[38], nf.bmpSpecs[specsIdx][5]);
+        mkSubE("RGB"+nf.bpp+"DATA", "");
         specsIdx++;
     }
 }
 
-private static void setFrameOffsets(Element e, int a)
+private void setFrameOffsets(int a) throws XMLStreamException
 {
     // Frame Offset Elements
     for(int f=0; f < numFrames; f++)
     {
-        Element frameOff = cfg.createElement(nf.xml_tag[42]);
-        frameOff.setAttribute("id",""+f);
-        frameOff.appendChild(cfg.createTextNode(""+nf.frameOffsets[a][f]));
-        e.appendChild(frameOff);
+        mkSubE(nf.xml_tag[42], "id", f, nf.frameOffsets[nf.frame(a,f)]);
     }
 }
 
-private static void setFrames(Element e, int a)
+private void setFrames(int a) throws XMLStreamException
 {
     for(int f=0; f < numFrames; f++)
     {
+        int g = nf.frame(a,f);
         // Frame element
-        Element frame = cfg.createElement("FRAME");
-        frame.setAttribute("id",""+f);
-        frame.setAttribute("offset",""+nf.frameOffsets[a][f]);
-        e.appendChild(frame);
+        startE("FRAME");
+        cfg.writeAttribute("id",""+f);
+        cfg.writeAttribute("offset",""+nf.frameOffsets[g]);
         // FrameDataTop (duration,numPlanes)
-        mkSubE(frame, nf.xml_tag[43], nf.frameDataTop[a][f][0]);
-        mkSubE(frame, nf.xml_tag[44], nf.frameDataTop[a][f][1]);
-        numPlanes = nf.frameDataTop[a][f][1];
+        mkSubE(nf.xml_tag[43], nf.frameDataTop[2*g]);
+        mkSubE(nf.xml_tag[44], nf.frameDataTop[2*g+1]);
+        numPlanes = nf.frameDataTop[2*g+1];
         // PlaneData (bmp_id,x,y,opacity,flip,blend_mode,flag_param)
-        setPlanes(frame,a,f);
+        setPlanes(a,f);
         // FrameDataBottom
-        setFrameDataBottom(frame,a,f);
+        setFrameDataBottom(a,f);
+        endE();
     }
 }
 
-private static void setPlanes(Element e, int a, int f)
+private void setPlanes(int a, int f) throws XMLStreamException
 {
+    int p0 = 7*nf.planeStart[nf.frame(a,f)];
     for(int p=0; p < numPlanes; p++)
     {
-        Element plane = cfg.createElement("PLANE");
-        plane.setAttribute("id",""+p);
-        e.appendChild(plane);
-        mkSubE(plane, nf.xml_tag[45], nf.planeData[a][f][p][0]);
-        mkSubE(plane, nf.xml_tag[46], nf.planeData[a][f][p][1]);
-        mkSubE(plane, nf.xml_tag[47], nf.planeData[a][f][p][2]);
-        mkSubE(plane, nf.xml_tag[48], nf.planeData[a][f][p][3]);
-        mkSubE(plane, nf.xml_tag[49], nf.planeData[a][f][p][4]);
-        mkSubE(plane, nf.xml_tag[50], nf.planeData[a][f][p][5]);
-        mkSubE(plane, nf.xml_tag[51], nf.planeData[a][f][p][6]);
+        startE("PLANE");
+        cfg.writeAttribute("id",""+p);
+        mkSubE(nf.xml_tag[45], nf.planeData[p0+7*p]);
+        mkSubE(nf.xml_tag[46], nf.planeData[p0+7*p+1]);
+        mkSubE(nf.xml_tag[47], nf.planeData[p0+7*p+2]);
+        mkSubE(nf.xml_tag[48], nf.planeData[p0+7*p+3]);
+        mkSubE(nf.xml_tag[49], nf.planeData[p0+7*p+4]);
+        mkSubE(nf.xml_tag[50], nf.planeData[p0+7*p+5]);
+        mkSubE(nf.xml_tag[51], nf.planeData[p0+7*p+6]);
+        endE();
     }
 }
 
@@ -288,63 +301,122 @@ private static void setPlanes(Element e, int a, int f)
 // measure, much of it has been encoded & stored as base64 data.
 // Once we know more about this section the base64 encoding can be replaced with
 // proper data type vars.
-private static void setFrameDataBottom(Element frame, int a, int f)
+private void setFrameDataBottom(int a, int f) throws XMLStreamException
 {
+    int g = nf.frame(a,f);
     if(nf.notV300)
     {
-        mkSubE(frame, nf.xml_tag[52], nf.numCoordSets[a][f]);
-        for(int i=0; i < nf.numCoordSets[a][f]; i++)
+        int c0 = 2*nf.coordStart[g];
+        mkSubE(nf.xml_tag[52], nf.numCoordSets(g));
+        for(int i=0; i < nf.numCoordSets(g); i++)
         {
-            mkSubE(frame, nf.xml_tag[53], nf.coordSets[a][f][i][0]);
-            mkSubE(frame, nf.xml_tag[54], nf.coordSets[a][f][i][1]);
+            mkSubE(nf.xml_tag[53], nf.coordSets[c0+2*i]);
+            mkSubE(nf.xml_tag[54], nf.coordSets[c0+2*i+1]);
         }
     }
-    mkSubE(frame, nf.xml_tag[55], nf.cdBlockSize);
+    mkSubE(nf.xml_tag[55], nf.cdBlockSize);
     if(nf.hasEB)
     {
-        mkSubE(frame, nf.xml_tag[56], b64Enc(nf.entryBlocks[a][f][0]));
-        mkSubE(frame, nf.xml_tag[56], b64Enc(nf.entryBlocks[a][f][1]));
-        mkSubE(frame, nf.xml_tag[56], b64Enc(nf.entryBlocks[a][f][2]));
-        mkSubE(frame, nf.xml_tag[56], b64Enc(nf.entryBlocks[a][f][3]));
-        mkSubE(frame, nf.xml_tag[56], b64Enc(nf.entryBlocks[a][f][4]));
-        mkSubE(frame, nf.xml_tag[56], b64Enc(nf.entryBlocks[a][f][5]));
+        mkSubE(nf.xml_tag[56], b64Enc(nf.entryBlocks[g][0]));
+        mkSubE(nf.xml_tag[56], b64Enc(nf.entryBlocks[g][1]));
+        mkSubE(nf.xml_tag[56], b64Enc(nf.entryBlocks[g][2]));
+        mkSubE(nf.xml_tag[56], b64Enc(nf.entryBlocks[g][3]));
+        mkSubE(nf.xml_tag[56], b64Enc(nf.entryBlocks[g][4]));
+        mkSubE(nf.xml_tag[56], b64Enc(nf.entryBlocks[g][5]));
     }
-    mkSubE(frame, nf.xml_tag[57], b64Enc(nf.unknownData1[a][f][0]));
-    mkSubE(frame, nf.xml_tag[57], b64Enc(nf.unknownData1[a][f][1]));
-    mkSubE(frame, nf.xml_tag[58], nf.soundEffect[a][f]);
-    mkSubE(frame, nf.xml_tag[59], b64Enc(nf.unknownData2[a][f]));
+    mkSubE(nf.xml_tag[57], b64Enc(nf.unknownData1[g][0]));
+    mkSubE(nf.xml_tag[57], b64Enc(nf.unknownData1[g][1]));
+    mkSubE(nf.xml_tag[58], nf.soundEffect[g]);
+    mkSubE(nf.xml_tag[59], b64Enc(nf.unknownData2[g]));
     if(nf.maybeMCV)
     {
-        mkSubE(frame, nf.xml_tag[60], nf.hasMCValues[a][f]);
-        if(nf.hasMCValues[a][f]==1)
+        mkSubE(nf.xml_tag[60], nf.hasMCValues[g]);
+        if(nf.hasMCValues[g]==1)
         {
-            mkSubE(frame, nf.xml_tag[61], nf.mcValues[a][f][0]);
-            mkSubE(frame, nf.xml_tag[62], nf.mcValues[a][f][1]);
-            mkSubE(frame, nf.xml_tag[63], nf.mcValues[a][f][2]);
-            mkSubE(frame, nf.xml_tag[64], nf.mcValues[a][f][3]);
-            mkSubE(frame, nf.xml_tag[65], nf.mcValues[a][f][4]);
-            mkSubE(frame, nf.xml_tag[66], nf.mcValues[a][f][5]);
-            mkSubE(frame, nf.xml_tag[67], nf.mcValues[a][f][6]);
-            mkSubE(frame, nf.xml_tag[68], nf.mcParam7[a][f]);
-            mkSubE(frame, nf.xml_tag[69], b64Enc(nf.mcParam8[a][f]));
+            mkSubE(nf.xml_tag[61], nf.mcValues[7*g]);
+            mkSubE(nf.xml_tag[62], nf.mcValues[7*g+1]);
+            mkSubE(nf.xml_tag[63], nf.mcValues[7*g+2]);
+            mkSubE(nf.xml_tag[64], nf.mcValues[7*g+3]);
+            mkSubE(nf.xml_tag[65], nf.mcValues[7*g+4]);
+            mkSubE(nf.xml_tag[66], nf.mcValues[7*g+5]);
+            mkSubE(nf.xml_tag[67], nf.mcValues[7*g+6]);
+            mkSubE(nf.xml_tag[68], nf.mcParam7[g]);
+            mkSubE(nf.xml_tag[69], b64Enc(nf.mcParam8[g]));
         }
     }
 }
 
+// Start an Element w/ children, on a new line (the root is right after the
+// declaration's line break)
+private void startE(String name) throws XMLStreamException
+{
+    if(depth > 0) indent();
+    cfg.writeStartElement(name);
+    depth++;
+}
+
+// End the Element from startE(), its end tag goes on a line of its own
+private void endE() throws XMLStreamException
+{
+    depth--;
+    indent();
+    cfg.writeEndElement();
+}
+
+// New line & 2 spaces per level
+private void indent() throws XMLStreamException
+{
+    cfg.writeCharacters(nl+"  ".repeat(depth));
+}
+
 // Make Element child (Element's Element)
-private static void mkSubE(Element e, String name, String value)
+private void mkSubE(String name, String value) throws XMLStreamException
 {
-    Element subE = cfg.createElement(name);
-    subE.appendChild(cfg.createTextNode(""+value));
-    e.appendChild(subE);
+    indent();
+    if(value.isEmpty())
+    {
+        cfg.writeEmptyElement(name);
+        return;
+    }
+    cfg.writeStartElement(name);
+    writeText(value);
+    cfg.writeEndElement();
 }
 
 // Make Element child (Element's Element)
-private static void mkSubE(Element e, String name, int value)
+private void mkSubE(String name, int value) throws XMLStreamException
 {
-    Element subE = cfg.createElement(name);
-    subE.appendChild(cfg.createTextNode(""+value));
-    e.appendChild(subE);
+    indent();
+    cfg.writeStartElement(name);
+    cfg.writeCharacters(""+value);
+    cfg.writeEndElement();
+}
+
+// Make Element child w/ 1 attribute, like <bmpOffset id="0">0</bmpOffset>
+private void mkSubE(String name, String attr, int attrVal, int value)
+throws XMLStreamException
+{
+    indent();
+    cfg.writeStartElement(name);
+    cfg.writeAttribute(attr,""+attrVal);
+    cfg.writeCharacters(""+value);
+    cfg.writeEndElement();
+}
+
+// The writer escapes &, < & >, but the Transformer also wrote the C1 control
+// chars (& DEL) as char references, so that is done here to match it
+private void writeText(String value) throws XMLStreamException
+{
+    int start = 0;
+    for(int i=0; i < value.length(); i++)
+    {
+        char c = value.charAt(i);
+        if(c < 0x7F || c > 0x9F) continue;
+        cfg.writeCharacters(value.substring(start,i));
+        cfg.writeEntityRef("#"+(int)c);
+        start = i+1;
+    }
+    cfg.writeCharacters(value.substring(start));
 }
 
 // Shorten the new base64 encoded string from byte array command
@@ -29,38 +29,50 @@ It is assumed that you have read the NORI Format Specification first, so most of
 the variables and variable assignments are not commented. Descriptive names are
 used for most things regardless. Fair warning has been given.
 
+A header that doesn't check out (signatures, versions, counts) is thrown to the
+caller instead of ending the program, so a batch can report it & go on w/ the
+next file. Only the rest (the bitmaps & animations) is caught & printed here.
+
 Development Priority: HIGHEST
 */
 public class Analyzer
 {
 // class variables
-private static NORI nf;
-private static ByteBuffer bb;
+private NORI nf;
+private ByteBuffer bb;
+private PrintStream out;
 static Charset UTF8=StandardCharsets.UTF_8,EUC_KR=Charset.forName("EUC-KR");
-private static int pos,rem,animNxt;
-static String bxc ="[^\u0020-\uD7FF\uE000-\uFFFD\ud800\udbff-\udc00\udfff]";
-private static String badXmlChars = bxc;
+private int pos,rem,animNxt;
+// 1 decoder & char buffer per thread, so strings aren't decoded via new String
+private static ThreadLocal<CharsetDecoder> utf8Decs =
+    ThreadLocal.withInitial(() -> newDecoder(UTF8));
+private static ThreadLocal<CharsetDecoder> eucKrDecs =
+    ThreadLocal.withInitial(() -> newDecoder(EUC_KR));
+private static ThreadLocal<CharBuffer> xmlChars =
+    ThreadLocal.withInitial(() -> CharBuffer.allocate(64));
+// soundEffect names already seen in this file, by their 18 raw bytes
+private HashMap<ByteBuffer,String> sfxNames = new HashMap<>();
 // OffsetCheck arrays
-private static int[] bmpOffsets,animOffsets;
-private static int[][] frameOffsets;
+private int[] bmpOffsets,animOffsets,frameOffsets;
 // Special animation variables
-private static int numFrames,fpos,numPlanes,subtractNum,areaSize;
+private int numFrames,fpos,numPlanes,subtractNum,areaSize;
 
 // constructor for Analyzer class
-public Analyzer(ByteBuffer BB, NORI NF, boolean extract_mode)
+public Analyzer(ByteBuffer BB, NORI NF, boolean extract_mode, PrintStream ps)
 {
-    // Save coding space by making BB and NF static global vars
+    // Save coding space by making BB and NF class vars
     bb = BB;
     nf = NF;
+    out = ps;
     // Start Analyzer output
     out.println("Filename: "+nf.name);
+    // Read and Assign info about the noriFile, a bad header is thrown
+    setNoriHeaderData();
+    setGawiHeaderData();
+    if(nf.hasPalette==1) setPaletteData();
+    setBmpOffsets();
     try
     {
-        // Read and Assign info about the noriFile
-        setNoriHeaderData();
-        setGawiHeaderData();
-        if(nf.hasPalette==1) setPaletteData();
-        setBmpOffsets();
         if(!extract_mode)
         {
             dryExtract();// Skip through bmpData, assign bmpSpecs data
@@ -71,16 +83,17 @@ public Analyzer(ByteBuffer BB, NORI NF, boolean extract_mode)
             {
                 setAnimData(a);
             }
+            trimAnimVars();
         }
     }
     catch(Exception ex)
     {
         out.println("Error in (AM):");
-        ex.printStackTrace(System.out);
+        ex.printStackTrace(out);
     }
 }
 
-private static void setNoriHeaderData()
+private void setNoriHeaderData()
 {
     nf.fsig = bb.getInt();
     noriCheck();
@@ -102,7 +115,7 @@ private static void setNoriHeaderData()
     out.println();
 }
 
-private static void setGawiHeaderData()
+private void setGawiHeaderData()
 {
     nf.gsig = bb.getInt();
     gawiCheck();
@@ -127,7 +140,7 @@ private static void setGawiHeaderData()
     out.println();
 }
 
-private static void setPaletteData() throws Exception
+private void setPaletteData()
 {
     nf.psig = bb.getInt();
     palCheck();
@@ -151,7 +164,7 @@ private static void setPaletteData() throws Exception
 
 // Make BMP color palette from raw palette data. Okay, one of the harder to
 // follow parts here. Colors are stored in BGR order. Take it in stride.
-private static byte[][] setPalette() throws Exception
+private byte[][] setPalette()
 {
     nf.palBytes = new byte[768];
     byte[][] colors = new byte[256][3];
@@ -174,8 +187,9 @@ private static byte[][] setPalette() throws Exception
 }
 
 // Load bmp offsets into the bmpOffsets array for global use
-private static void setBmpOffsets()
+private void setBmpOffsets()
 {
+    countCheck(nf.bmpStructs,4,"bmpStructs");
     bmpOffsets = new int[nf.bmpStructs];
     nf.bmpOffsets = new int[nf.bmpStructs];
     switch(nf.compressed)
@@ -199,77 +213,144 @@ private static void setBmpOffsets()
 }
 
 // Load the bmpCount & bmpSpecs array and simulate extraction for the bytebuffer
-private static void dryExtract()
+// Everything is read in 1 pass, the specs go in a flat array (6 ints per
+// bitmap) that grows by doubling, since the # of bitmaps isn't known yet.
+private void dryExtract()
 {
+    if(Options.idxDir!=null && cachedDryExtract()) return;
     nf.bmpCount = new int[nf.bmpStructs];
-    for(int i=0,dataLength=0; i < nf.bmpStructs; i++)
+    int[] specs = new int[6*Math.max(nf.bmpStructs,16)];
+    for(int i=0; i < nf.bmpStructs; i++)
     {
         bmpOffsets[i] = bb.position()-nf.bpos;// Set bmpOffsetCheck() value
         // Get & Set bmpCount data
         nf.bmpCount[i] = bb.getInt();
+        countCheck(nf.bmpCount[i],24,"bmpCount");
         for(int x=0; x < nf.bmpCount[i]; x++)
         {
-            dataLength = bb.getInt();
-            movePosFwd(20+dataLength);
+            int s = 6*nf.totalBMP++;// Update total BMP
+            if(s==specs.length) specs = Arrays.copyOf(specs,2*s);
+            // dataLength,w,h,bParam4,bmp_x,bmp_y
+            getInts(specs,s,6);
+            movePosFwd(nf.dataSize(specs[s],specs[s+1],specs[s+2]));
         }
-        nf.totalBMP += nf.bmpCount[i];// Update total BMP
     }
     bmpOffsetCheck();// Test the BMP offsets before we go any further (for dbg)
-    bb.position(nf.bpos);
-    nf.bmpSpecs = new int[nf.totalBMP][6];
-    for(int i=0,specsIdx=0; i < nf.bmpStructs; i++)
+    nf.bmpSpecs = new int[nf.totalBMP][];
+    for(int i=0; i < nf.totalBMP; i++)
     {
-        // Get & Set BMP Specs
-        if(nf.bmpCount[i]!=0) bb.getInt();// Skip bmpCount, it is already known
-        for(int x=0; x < nf.bmpCount[i]; x++)
-        {
-            nf.bmpSpecs[specsIdx][0] = bb.getInt();//dataLength
-            nf.bmpSpecs[specsIdx][1] = bb.getInt();//w
-            nf.bmpSpecs[specsIdx][2] = bb.getInt();//h
-            nf.bmpSpecs[specsIdx][3] = bb.getInt();//bParam4
-            nf.bmpSpecs[specsIdx][4] = bb.getInt();//bmp_x
-            nf.bmpSpecs[specsIdx][5] = bb.getInt();//bmp_y
-            movePosFwd(nf.bmpSpecs[specsIdx][0]);
-            specsIdx++;
-        }
+        nf.bmpSpecs[i] = Arrays.copyOfRange(specs,6*i,6*i+6);
+    }
+    nf.asize = bb.remaining();
+}
+
+// The same as dryExtract(), but w/ everything taken from the index cache
+private boolean cachedDryExtract()
+{
+    NORIIndex idx = NORIIndex.get(new File(nf.dir+nf.name),bb,out);
+    if(idx==null) return false;
+    nf.bmpCount = new int[nf.bmpStructs];
+    nf.totalBMP = idx.bitmaps.length;
+    nf.bmpSpecs = new int[nf.totalBMP][];
+    for(int i=0; i < nf.totalBMP; i++)
+    {
+        int[] e = idx.bitmaps[i];
+        nf.bmpCount[e[4]]++;
+        // dataLength,w,h,bParam4,bmp_x,bmp_y
+        nf.bmpSpecs[i] = new int[]{e[6],e[2],e[3],e[7],e[8],e[9]};
+    }
+    for(int i=0; i < nf.bmpStructs; i++)
+    {
+        bmpOffsets[i] = idx.structPos[i]-nf.bpos;// Set bmpOffsetCheck() value
     }
+    bmpOffsetCheck();
+    bb.position(idx.gawiEnd);
     nf.asize = bb.remaining();
+    return true;
 }
 
-// Prepare the animation-related arrays
-private static void prepAnimVars()
+// Prepare the animation-related arrays. Only the animation level is sized
+// exactly here. The frame-level arrays, planes & coordSets start small & grow
+// (doubling) as they are read, then trimAnimVars() cuts them to size.
+private void prepAnimVars()
 {
-    // large array sizes needed for dealing with unknown input
-    int frames = 220;//largest found:216 (pet_cm_387.nri)
-    int planes = 120;//largest found:114 (map_sq07.bac)
     nf.animOffsets  = new int[nf.anims+1];
     nf.titleBytes   = new byte[nf.anims][32];//stored as an array for debugging
     nf.title        = new String[nf.anims];
     nf.numFrames    = new int[nf.anims];
-    frameOffsets    = new int[nf.anims][frames];
-    nf.frameOffsets = new int[nf.anims][frames];
-    nf.frameDataTop = new int[nf.anims][frames][2];
-    // planeData is the largest array, consuming approx 472MB for itm_cm_shop000
-    nf.planeData    = new int[nf.anims][frames][planes][7];
+    nf.frameStart   = new int[nf.anims+1];
+    nf.frameOffsets = new int[0];
+    nf.frameDataTop = new int[0];
+    nf.planeStart   = new int[1];
+    nf.planeData    = new int[7*64];
+    if(nf.notV300)
+    {
+        nf.coordStart = new int[1];
+        nf.coordSets  = new int[2*64];
+    }
+    if(nf.hasEB) nf.entryBlocks = new byte[0][][];
+    nf.unknownData1 = new byte[0][][];
+    nf.soundEffect  = new String[0];
+    nf.unknownData2 = new byte[0][];
+    if(nf.maybeMCV)
+    {
+        nf.hasMCValues = new int[0];
+        nf.mcValues    = new int[0];
+        nf.mcParam7    = new String[0];
+        nf.mcParam8    = new byte[0][];
+    }
+    growFrames(64);
+}
+
+// Make room for at least frames frames in every frame-level array
+private void growFrames(int frames)
+{
+    if(frames <= nf.frameOffsets.length) return;
+    int n = Math.max(frames,2*nf.frameOffsets.length);
+    nf.frameOffsets = Arrays.copyOf(nf.frameOffsets,n);
+    nf.frameDataTop = Arrays.copyOf(nf.frameDataTop,2*n);
+    nf.planeStart   = Arrays.copyOf(nf.planeStart,n+1);
+    if(nf.notV300) nf.coordStart = Arrays.copyOf(nf.coordStart,n+1);
+    if(nf.hasEB) nf.entryBlocks = Arrays.copyOf(nf.entryBlocks,n);
+    nf.unknownData1 = Arrays.copyOf(nf.unknownData1,n);
+    nf.soundEffect  = Arrays.copyOf(nf.soundEffect,n);
+    nf.unknownData2 = Arrays.copyOf(nf.unknownData2,n);
+    if(nf.maybeMCV)
+    {
+        nf.hasMCValues = Arrays.copyOf(nf.hasMCValues,n);
+        nf.mcValues    = Arrays.copyOf(nf.mcValues,7*n);
+        nf.mcParam7    = Arrays.copyOf(nf.mcParam7,n);
+        nf.mcParam8    = Arrays.copyOf(nf.mcParam8,n);
+    }
+}
+
+// Cut the grown arrays down to what the file actually has
+private void trimAnimVars()
+{
+    int n = nf.totalFrames;
+    nf.frameOffsets = Arrays.copyOf(nf.frameOffsets,n);
+    nf.frameDataTop = Arrays.copyOf(nf.frameDataTop,2*n);
+    nf.planeStart   = Arrays.copyOf(nf.planeStart,n+1);
+    nf.planeData    = Arrays.copyOf(nf.planeData,7*nf.totalPlanes);
     if(nf.notV300)
     {
-        nf.numCoordSets = new int[nf.anims][frames];//record:14 (map_uw03.bac)
-        nf.coordSets    = new int[nf.anims][frames][20][2];
+        nf.coordStart = Arrays.copyOf(nf.coordStart,n+1);
+        nf.coordSets  = Arrays.copyOf(nf.coordSets,2*nf.coordStart[n]);
     }
-    if(nf.hasEB) nf.entryBlocks = new byte[nf.anims][frames][6][28];
-    nf.unknownData1 = new byte[nf.anims][frames][2][22];
-    nf.soundEffect  = new String[nf.anims][frames];
-    nf.unknownData2 = new byte[nf.anims][frames][18];
+    if(nf.hasEB) nf.entryBlocks = Arrays.copyOf(nf.entryBlocks,n);
+    nf.unknownData1 = Arrays.copyOf(nf.unknownData1,n);
+    nf.soundEffect  = Arrays.copyOf(nf.soundEffect,n);
+    nf.unknownData2 = Arrays.copyOf(nf.unknownData2,n);
     if(nf.maybeMCV)
     {
-        nf.hasMCValues = new int[nf.anims][frames];
-        nf.mcValues    = new int[nf.anims][frames][7];
-        nf.mcParam7    = new String[nf.anims][frames];
-        nf.mcParam8    = new byte[nf.anims][frames][20];
+        nf.hasMCValues = Arrays.copyOf(nf.hasMCValues,n);
+        nf.mcValues    = Arrays.copyOf(nf.mcValues,7*n);
+        nf.mcParam7    = Arrays.copyOf(nf.mcParam7,n);
+        nf.mcParam8    = Arrays.copyOf(nf.mcParam8,n);
     }
 }
 
-private static void setAnimOffsets()
+private void setAnimOffsets()
 {
     for(int a=0; a < nf.anims; a++)
     {
@@ -279,7 +360,7 @@ private static void setAnimOffsets()
 }
 
 // Set the data for all the animations
-private static void setAnimData(int a)
+private void setAnimData(int a)
 {
     if(nf.animOffsets[a+1]!=0)
         animNxt=nf.animOffsets[a+1]+nf.apos;
@@ -290,21 +371,24 @@ private static void setAnimData(int a)
     nf.title[a] = newXmlStr(nf.titleBytes[a],EUC_KR);
     nf.numFrames[a] = bb.getInt();
     numFrames = nf.numFrames[a];
-    //if(numFrames>220) out.printf("Ole!numFrames:%d @%d\n",numFrames,getPos());
+    // each frame has at least its 4 byte offset, so this catches garbage
+    countCheck(numFrames,4,"numFrames");
+    int g0 = nf.totalFrames;
+    growFrames(g0+numFrames);
+    nf.frameStart[a] = g0;
     nf.totalFrames += numFrames;//Fixer var
+    nf.frameStart[a+1] = nf.totalFrames;
     // Set Frame Offsets
-    for(int f=0; f < numFrames; f++)
-    {
-        nf.frameOffsets[a][f] = bb.getInt();
-    }
+    getInts(nf.frameOffsets,g0,numFrames);
     fpos = bb.position();//End of frame offsets
+    frameOffsets = new int[numFrames];
     // Set Frame Data
     for(int f=0; f < numFrames; f++)
     {
-        frameOffsets[a][f] = bb.position()-fpos;// Set frameOffsetCheck() value
-        setFrameDataTop(a,f);
-        setPlaneData(a,f);
-        setFrameDataBottom(a,f);
+        frameOffsets[f] = bb.position()-fpos;// Set frameOffsetCheck() value
+        setFrameDataTop(g0+f);
+        setPlaneData(g0+f);
+        setFrameDataBottom(g0+f);
     }
     frameOffsetCheck(a,numFrames,fpos);// Test the frameOffsets (for dbg)
     pos = bb.position();
@@ -315,87 +399,88 @@ private static void setAnimData(int a)
     }
 }
 
-private static void setFrameDataTop(int a, int f)
+private void setFrameDataTop(int g)
 {
-    nf.frameDataTop[a][f][0] = bb.getInt();//duration
-    nf.frameDataTop[a][f][1] = bb.getInt();//numPlanes
-    numPlanes = nf.frameDataTop[a][f][1];
-    //if(numPlanes>120) out.printf("Ole!numPlanes:%d @%d\n",numPlanes,getPos());
+    nf.frameDataTop[2*g]   = bb.getInt();//duration
+    nf.frameDataTop[2*g+1] = bb.getInt();//numPlanes
+    numPlanes = nf.frameDataTop[2*g+1];
+    countCheck(numPlanes,28,"numPlanes");
+    nf.planeStart[g] = nf.totalPlanes;
     nf.totalPlanes += numPlanes;//Fixer var
+    nf.planeStart[g+1] = nf.totalPlanes;
 }
 
-private static void setPlaneData(int a, int f)
+// bmp_id, plane_x, plane_y, opacity, flip, blend_mode, flag_param per plane
+private void setPlaneData(int g)
 {
-    for(int p=0; p < numPlanes; p++)
-    {
-        nf.planeData[a][f][p][0] = bb.getInt();//bmp_id
-        nf.planeData[a][f][p][1] = bb.getInt();//plane_x
-        nf.planeData[a][f][p][2] = bb.getInt();//plane_y
-        nf.planeData[a][f][p][3] = bb.getInt();//opacity
-        nf.planeData[a][f][p][4] = bb.getInt();//flip
-        nf.planeData[a][f][p][5] = bb.getInt();//blend_mode
-        nf.planeData[a][f][p][6] = bb.getInt();//flag_param
-    }
+    int start = 7*nf.planeStart[g], len = 7*numPlanes;
+    if(start+len > nf.planeData.length)
+        nf.planeData = Arrays.copyOf(nf.planeData,Math.max(start+len,
+                                                  2*nf.planeData.length));
+    getInts(nf.planeData,start,len);
 }
 
-private static void setFrameDataBottom(int a, int f)
+private void setFrameDataBottom(int g)
 {
+    if(nf.notV300) nf.coordStart[g+1] = nf.coordStart[g];
     try
     {
         if(nf.notV300)
         {
-            nf.numCoordSets[a][f] = bb.getInt();
-            for(int i=0; i < nf.numCoordSets[a][f]; i++)
-            {
-                nf.coordSets[a][f][i][0] = bb.getInt();
-                nf.coordSets[a][f][i][1] = bb.getInt();
-            }
+            int sets = bb.getInt();
+            countCheck(sets,8,"numCoordSets");
+            int start = 2*nf.coordStart[g], len = 2*sets;
+            if(start+len > nf.coordSets.length)
+                nf.coordSets = Arrays.copyOf(nf.coordSets,Math.max(start+len,
+                                                       2*nf.coordSets.length));
+            getInts(nf.coordSets,start,len);
+            nf.coordStart[g+1] += sets;
         }
         movePosFwd(nf.cdBlockSize);
         if(nf.hasEB)
         {
-            bb.get(nf.entryBlocks[a][f][0]);
-            bb.get(nf.entryBlocks[a][f][1]);
-            bb.get(nf.entryBlocks[a][f][2]);
-            bb.get(nf.entryBlocks[a][f][3]);
-            bb.get(nf.entryBlocks[a][f][4]);
-            bb.get(nf.entryBlocks[a][f][5]);
+            nf.entryBlocks[g] = new byte[6][28];
+            for(byte[] eb : nf.entryBlocks[g]) bb.get(eb);
         }
-        bb.get(nf.unknownData1[a][f][0]);
-        bb.get(nf.unknownData1[a][f][1]);
+        nf.unknownData1[g] = new byte[2][22];
+        bb.get(nf.unknownData1[g][0]);
+        bb.get(nf.unknownData1[g][1]);
         bb.get(nf.sfx);
-        nf.soundEffect[a][f] = newXmlStr(nf.sfx,UTF8);
-        bb.get(nf.unknownData2[a][f]);
+        nf.soundEffect[g] = sfxName();
+        nf.unknownData2[g] = new byte[18];
+        bb.get(nf.unknownData2[g]);
         if(nf.maybeMCV)
         {
-            nf.hasMCValues[a][f] = bb.getInt();
-            if(nf.hasMCValues[a][f]==1)
+            nf.hasMCValues[g] = bb.getInt();
+            nf.mcParam8[g] = new byte[20];
+            if(nf.hasMCValues[g]==1)
             {
-                nf.mcValues[a][f][0] = bb.getInt();
-                nf.mcValues[a][f][1] = bb.getInt();
-                nf.mcValues[a][f][2] = bb.getInt();
-                nf.mcValues[a][f][3] = bb.getInt();
-                nf.mcValues[a][f][4] = bb.getInt();
-                nf.mcValues[a][f][5] = bb.getInt();
-                nf.mcValues[a][f][6] = bb.getInt();
-                areaSize = nf.mcValues[a][f][1]*nf.mcValues[a][f][2];
+                getInts(nf.mcValues,7*g,7);
+                areaSize = nf.mcValues[7*g+1]*nf.mcValues[7*g+2];
                 byte[] area = new byte[areaSize];
                 bb.get(area);
-                //nf.mcParam7[a][f] = toBase64RLE(b64Enc(area));
-                nf.mcParam7[a][f] = b64Enc(area);
-                bb.get(nf.mcParam8[a][f]);
+                //nf.mcParam7[g] = toBase64RLE(b64Enc(area));
+                nf.mcParam7[g] = b64Enc(area);
+                bb.get(nf.mcParam8[g]);
             }
         }
     }
     catch(Exception ex)
     {
         out.println("Error in (FrameDataBottom):");
-        ex.printStackTrace(System.out);
+        ex.printStackTrace(out);
     }
 }
 
+// Bulk reads len ints into ia[off], instead of 1 getInt() at a time
+private void getInts(int[] ia, int off, int len)
+{
+    bb.asIntBuffer().get(ia,off,len);
+    movePosFwd(4*len);
+}
+
 // Check if nf offset arrays = local arrays, fix nf arrays if not equal
-private static void bmpOffsetCheck()
+private void bmpOffsetCheck()
 {
     if(!Arrays.equals(nf.bmpOffsets,bmpOffsets))
     {
@@ -408,59 +493,61 @@ private static void bmpOffsetCheck()
     }
 }
 
-private static void frameOffsetCheck(int a, int frames, int frameOffsetOrigin)
+private void frameOffsetCheck(int a, int frames, int frameOffsetOrigin)
 {
-    if(!Arrays.equals(nf.frameOffsets[a],frameOffsets[a]))
+    int g0 = nf.frameStart[a];
+    int[] orig = Arrays.copyOfRange(nf.frameOffsets,g0,g0+frames);
+    if(!Arrays.equals(orig,frameOffsets))
     {
         out.println("Frame Offset Check Failed!");
         out.println("Original Frame Offsets for AnimID["+a+"]:");
-        printIntArr(nf.frameOffsets[a],""+frameOffsetOrigin+"+","",frames);
+        printIntArr(orig,""+frameOffsetOrigin+"+","",frames);
         out.println("New Frame Offsets for AnimID["+a+"]:");
-        printIntArr(frameOffsets[a],""+frameOffsetOrigin+"+","",frames);
-        nf.frameOffsets[a] = frameOffsets[a];
+        printIntArr(frameOffsets,""+frameOffsetOrigin+"+","",frames);
+        System.arraycopy(frameOffsets,0,nf.frameOffsets,g0,frames);
     }
 }
 
-private static void noriCheck()
+private void noriCheck()
 {
     out.print("NORI Signature Check: ");
     intCheck(1230131022, nf.fsig);
 }
 
 // Checks NORI version and sets the version-specific variables
-private static void noriVerCheck()
+private void noriVerCheck()
 {
     out.print("NORI Version: ");
     nf.setVerSpecific();
     out.println(nf.noriVer);
 }
 
-private static void gawiCheck()
+private void gawiCheck()
 {
     out.print("GAWI Signature Check: ");
     intCheck(1230455111, nf.gsig);
 }
 
-private static void gawiVerCheck()
+private void gawiVerCheck()
 {
     out.print("GAWI Version: ");
     intCheck(300, nf.gawiVer);
 }
 
-private static void palCheck()
+private void palCheck()
 {
     out.print("PAL_ Signature Check: ");
     intCheck(1598832976, nf.psig);
 }
 
-private static void palVerCheck()
+private void palVerCheck()
 {
     out.print("PAL_ Version: ");
     intCheck(100, nf.palVer);
 }
 
 // Reusable int check, b/c we do this often
-private static void intCheck(int ref, int input)
+private void intCheck(int ref, int input)
 {
     if(input == ref)
     {
@@ -469,19 +556,30 @@ private static void intCheck(int ref, int input)
     else
     {
         out.println("Failed!");
-        System.exit(1);
+        throw new IllegalStateException("Expected "+ref+", found "+input);
+    }
+}
+
+// Makes sure a count of things that are size bytes each fits in the rest of
+// the file, before an array gets made for them
+private void countCheck(int count, int size, String name)
+{
+    if(count < 0 || count > bb.remaining()/size)
+    {
+        String msg = "Bad "+name+": "+count+" @"+getPos();
+        throw new IllegalStateException(msg);
     }
 }
 
 // Moves the ByteBuffer position forward by int param value
-private static void movePosFwd(int incrementNum)
+private void movePosFwd(int incrementNum)
 {
     pos = bb.position()+incrementNum;
     bb.position(pos);
 }
 
 // A space saver + better readability function
-private static int getPos()
+private int getPos()
 {
     return bb.position();
 }
@@ -493,23 +591,90 @@ private static String b64Enc(byte[] ba)
 }
 
 // Exception catching for new XML String creation
-private static String newXmlStr(byte[] ba, Charset charSet)
+private String newXmlStr(byte[] ba, Charset charSet)
 {
     String newXmlStr="";
     try
     {
-        newXmlStr = new String(ba,charSet);
-        newXmlStr = newXmlStr.replaceAll(badXmlChars," ").trim();
+        newXmlStr = xmlStr(ba,charSet);
     }
     catch(Exception ex)
     {
         out.println("Error in (newXmlStr):");
-        ex.printStackTrace(System.out);
+        ex.printStackTrace(out);
     }
     return newXmlStr;
 }
 
-private static void printIntArr(int[] arr, String prfx, String sffx, int limit)
+// There are only a handful of different soundEffects in a file, so each one is
+// decoded once & the same (interned) String is used for every frame after that
+private String sfxName()
+{
+    String name = sfxNames.get(ByteBuffer.wrap(nf.sfx));
+    if(name==null)
+    {
+        name = newXmlStr(nf.sfx,UTF8).intern();
+        sfxNames.put(ByteBuffer.wrap(nf.sfx.clone()),name);
+    }
+    return name;
+}
+
+// Decodes ba, replaces the chars XML can't have w/ spaces & trims the result.
+// Malformed bytes become U+FFFD, the same as new String(ba,charSet) does.
+static String xmlStr(byte[] ba, Charset charSet)
+{
+    CharsetDecoder dec = charSet.equals(EUC_KR) ? eucKrDecs.get() :
+                         charSet.equals(UTF8) ? utf8Decs.get() :
+                         newDecoder(charSet);
+    int max = (int)(ba.length*(double)dec.maxCharsPerByte())+1;
+    CharBuffer cb = xmlChars.get();
+    if(cb.capacity() < max)
+    {
+        cb = CharBuffer.allocate(max);
+        xmlChars.set(cb);
+    }
+    cb.clear();
+    dec.reset();
+    dec.decode(ByteBuffer.wrap(ba),cb,true);
+    dec.flush(cb);
+    char[] c = cb.array();
+    int len = cleanXmlChars(c,cb.position());
+    // trim
+    int start = 0, end = len;
+    while(start < end && c[start]==' ') start++;
+    while(end > start && c[end-1]==' ') end--;
+    return new String(c,start,end-start);
+}
+
+// Replaces every char outside 0x20-0xD7FF & 0xE000-0xFFFD w/ a space, in place.
+// A surrogate pair (a char past 0xFFFF) becomes 1 space. Returns the new length.
+private static int cleanXmlChars(char[] c, int len)
+{
+    int n = 0;
+    for(int i=0; i < len; i++)
+    {
+        char ch = c[i];
+        if((ch >= 0x20 && ch <= 0xD7FF) || (ch >= 0xE000 && ch <= 0xFFFD))
+        {
+            c[n++] = ch;
+            continue;
+        }
+        if(Character.isHighSurrogate(ch) && i+1 < len &&
+           Character.isLowSurrogate(c[i+1])) i++;
+        c[n++] = ' ';
+    }
+    return n;
+}
+
+// Decoders that act like new String(ba,charSet) on bad input
+private static CharsetDecoder newDecoder(Charset charSet)
+{
+    return charSet.newDecoder()
+                  .onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+}
+
+private void printIntArr(int[] arr, String prfx, String sffx, int limit)
 {
     for(int x=0; x < limit; x++)
     {
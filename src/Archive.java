@@ -0,0 +1,292 @@
+/*
+Archive.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+/**
+Class Description:
+The Archive class is an output sink that puts extracted images into a single
+ZIP or TAR file, instead of writing one file per image. One archive can hold a
+single NORI file's images, or a whole batch's (see Options.arFile).
+
+Dev Notes:
+Both formats are written by hand, through one buffered channel. That way the
+ZIP entries can be deflated by the worker threads before they are added, and
+only the actual writing has to wait its turn. Entries are added in whatever
+order they finish in, the names are what keep them in order.
+
+ZIP64 records are only written when they are needed, i.e. more than 65535
+entries or more than 4GB of data. Every entry is far below 4GB by itself, so
+only the central directory has to care about it.
+
+Development Priority: MEDIUM
+*/
+public class Archive
+{
+// class variables
+private OutputStream os;
+private String type, path;
+private int level;
+private long pos=0;
+private ByteArrayOutputStream cenDir = new ByteArrayOutputStream();
+private int entries=0, dosTime, dosDate;
+private static final long max32=0xFFFFFFFFL;
+
+// constructor for Archive class, type is "zip" or "tar", level is ZIP only
+// (0 = stored, 1-9 = deflated)
+public Archive(String file, String arType, int zipLevel) throws IOException
+{
+    path = file;
+    type = arType;
+    level = zipLevel;
+    FileChannel fc = FileChannel.open(Paths.get(file),
+        StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    os = new BufferedOutputStream(Channels.newOutputStream(fc),1<<20);
+    // every entry gets the time the archive was made, in MS-DOS format
+    Calendar c = Calendar.getInstance();
+    dosTime = c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 |
+              c.get(Calendar.SECOND)/2;
+    dosDate = (c.get(Calendar.YEAR)-1980) << 9 |
+              (c.get(Calendar.MONTH)+1) << 5 | c.get(Calendar.DAY_OF_MONTH);
+}
+
+// The archive's file extension for a type
+public static String ext(String arType)
+{
+    return "."+arType;
+}
+
+// Adds a file to the archive, safe to call from any number of threads
+public void add(String name, byte[] data) throws IOException
+{
+    if(type.equals("tar"))
+    {
+        addTar(name,data);
+        return;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    // deflate before taking the lock, so threads only queue up for writing
+    byte[] zData = (level > 0) ? Zlib.deflateRaw(data,level) : data;
+    // keep it stored if deflating didn't make it any smaller
+    int method = (level > 0 && zData.length < data.length) ? 8 : 0;
+    if(method==0) zData = data;
+    addZip(name.getBytes(StandardCharsets.UTF_8),data.length,zData,method,
+           (int)crc.getValue());
+}
+
+private synchronized void addZip(byte[] name, int size, byte[] zData,
+                                 int method, int crc) throws IOException
+{
+    long offset = pos;
+    ByteBuffer loc = mkLEBB(new byte[30]);
+    loc.putInt(0x04034b50);
+    loc.putShort((short)20);// version needed (2.0)
+    loc.putShort((short)0x0800);// flag: names are UTF-8
+    loc.putShort((short)method);
+    loc.putShort((short)dosTime);
+    loc.putShort((short)dosDate);
+    loc.putInt(crc);
+    loc.putInt(zData.length);
+    loc.putInt(size);
+    loc.putShort((short)name.length);
+    loc.putShort((short)0);// extra field length
+    write(loc.array());
+    write(name);
+    write(zData);
+    // the central directory entry, written out by close()
+    boolean zip64 = offset >= max32;
+    ByteBuffer cen = mkLEBB(new byte[46+(zip64 ? 12 : 0)]);
+    cen.putInt(0x02014b50);
+    cen.putShort((short)(zip64 ? 45 : 20));// version made by
+    cen.putShort((short)(zip64 ? 45 : 20));// version needed
+    cen.putShort((short)0x0800);
+    cen.putShort((short)method);
+    cen.putShort((short)dosTime);
+    cen.putShort((short)dosDate);
+    cen.putInt(crc);
+    cen.putInt(zData.length);
+    cen.putInt(size);
+    cen.putShort((short)name.length);
+    cen.putShort((short)(zip64 ? 12 : 0));// extra field length
+    cen.putShort((short)0);// comment length
+    cen.putShort((short)0);// disk #
+    cen.putShort((short)0);// internal attributes
+    cen.putInt(0);// external attributes
+    cen.putInt(zip64 ? (int)max32 : (int)offset);
+    cenDir.write(cen.array(),0,46);
+    cenDir.write(name);
+    if(zip64)
+    {
+        // ZIP64 extra field: id, size, then the real offset
+        ByteBuffer ext = mkLEBB(new byte[12]);
+        ext.putShort((short)1);
+        ext.putShort((short)8);
+        ext.putLong(offset);
+        cenDir.write(ext.array());
+    }
+    entries++;
+}
+
+// A ustar header, the data, then padding up to the next 512 byte block. A name
+// too long for the header comes first in a PAX header, as a path record.
+private synchronized void addTar(String name, byte[] data) throws IOException
+{
+    byte[] nm = name.getBytes(StandardCharsets.UTF_8);
+    // names over 100 bytes are split at a '/' into the prefix field
+    int cut = -1;
+    for(int i=Math.min(nm.length-2,155); nm.length > 100 && i > 0; i--)
+    {
+        if(nm[i]!='/') continue;
+        if(nm.length-i-1 <= 100) cut = i;
+        break;
+    }
+    if(nm.length > 100 && cut < 0)
+    {
+        // "len path=name\n", where len counts the whole record (itself too)
+        int len = 7+nm.length;
+        len += String.valueOf(len+String.valueOf(len).length()).length();
+        byte[] rec = (len+" path="+name+"\n").getBytes(StandardCharsets.UTF_8);
+        write(tarHeader("PaxHeader/"+entries,new byte[0],rec.length,'x'));
+        write(rec);
+        write(new byte[(512-rec.length%512)%512]);
+        // the plain header keeps what fits, for readers w/o PAX support
+        nm = Arrays.copyOf(nm,100);
+    }
+    byte[] pre = new byte[0];
+    if(cut >= 0)
+    {
+        pre = Arrays.copyOf(nm,cut);
+        nm = Arrays.copyOfRange(nm,cut+1,nm.length);
+    }
+    write(tarHeader(nm,pre,data.length,'0'));
+    write(data);
+    write(new byte[(512-data.length%512)%512]);
+    entries++;
+}
+
+private static byte[] tarHeader(String name, byte[] prefix, int size,
+                                char type)
+{
+    return tarHeader(name.getBytes(StandardCharsets.UTF_8),prefix,size,type);
+}
+
+// A ustar header block, name & prefix must already fit (100 & 155 bytes)
+private static byte[] tarHeader(byte[] name, byte[] prefix, int size,
+                                char type)
+{
+    byte[] hdr = new byte[512];
+    System.arraycopy(name,0,hdr,0,name.length);
+    tarField(hdr,100,8,"0000644");// mode
+    tarField(hdr,108,8,"0000000");// uid
+    tarField(hdr,116,8,"0000000");// gid
+    tarField(hdr,124,12,String.format("%011o",size));
+    tarField(hdr,136,12,String.format("%011o",System.currentTimeMillis()/1000));
+    Arrays.fill(hdr,148,156,(byte)' ');// checksum is summed as spaces
+    hdr[156] = (byte)type;// '0' = regular file, 'x' = PAX header
+    tarField(hdr,257,6,"ustar");
+    tarField(hdr,263,2,"00");
+    System.arraycopy(prefix,0,hdr,345,prefix.length);
+    int sum = 0;
+    for(byte b : hdr) sum += b & 0xFF;
+    tarField(hdr,148,7,String.format("%06o",sum));
+    return hdr;
+}
+
+// An anti-duplication + better readability function
+private static void tarField(byte[] hdr, int off, int len, String val)
+{
+    byte[] v = val.getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(v,0,hdr,off,Math.min(v.length,len));
+}
+
+// Finishes the archive (ZIP central directory or TAR end blocks) & closes it
+public synchronized void close() throws IOException
+{
+    if(type.equals("tar"))
+    {
+        write(new byte[1024]);
+    }
+    else
+    {
+        long cenOff = pos, cenSize = cenDir.size();
+        cenDir.writeTo(os);
+        pos += cenSize;
+        boolean zip64 = entries >= 0xFFFF || cenOff >= max32;
+        if(zip64)
+        {
+            long eocd64 = pos;
+            ByteBuffer z64 = mkLEBB(new byte[56+20]);
+            z64.putInt(0x06064b50);
+            z64.putLong(44);// size of the rest of this record
+            z64.putShort((short)45);
+            z64.putShort((short)45);
+            z64.putInt(0);
+            z64.putInt(0);
+            z64.putLong(entries);
+            z64.putLong(entries);
+            z64.putLong(cenSize);
+            z64.putLong(cenOff);
+            // ZIP64 end of central directory locator
+            z64.putInt(0x07064b50);
+            z64.putInt(0);
+            z64.putLong(eocd64);
+            z64.putInt(1);
+            write(z64.array());
+        }
+        ByteBuffer end = mkLEBB(new byte[22]);
+        end.putInt(0x06054b50);
+        end.putShort((short)0);
+        end.putShort((short)0);
+        end.putShort((short)(zip64 ? 0xFFFF : entries));
+        end.putShort((short)(zip64 ? 0xFFFF : entries));
+        end.putInt(zip64 ? (int)max32 : (int)cenSize);
+        end.putInt(zip64 ? (int)max32 : (int)cenOff);
+        end.putShort((short)0);// comment length
+        write(end.array());
+    }
+    os.close();
+}
+
+// The # of files added so far
+public int size()
+{
+    return entries;
+}
+
+// Where the archive is being written
+public String getPath()
+{
+    return path;
+}
+
+private void write(byte[] ba) throws IOException
+{
+    os.write(ba);
+    pos += ba.length;
+}
+
+// An anti-duplication + better readability function
+private static ByteBuffer mkLEBB(byte[] ba)
+{
+    return ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
+}
+}
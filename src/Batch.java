@@ -0,0 +1,247 @@
+/*
+Batch.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import static java.lang.System.out;
+/**
+Class Description:
+The Batch class runs the Extract & Analyze modes over a list of NORI files.
+When there is more than one file, they are spread over a fixed pool of worker
+threads (see Options.threads) and processed at the same time.
+
+Dev Notes:
+Every file gets its own NORI, ByteBuffer, JBL, etc. because each task creates
+its own Extract/Analyze object. Nothing is shared between tasks except the
+read-only Options. The output of a task is kept in its own buffer and printed
+in one piece when the file is done, so the logs of different files never mix.
+
+Development Priority: MEDIUM
+*/
+public class Batch
+{
+// class variables
+private char mode;
+private String dLn;
+private Archive ar;
+private Map<File,String> arDirs;
+
+// constructor for Batch class
+public Batch(char batchMode, List<File> nFiles, String divider)
+{
+    mode = batchMode;
+    dLn = divider;
+    int threads = Math.min(Options.threads, nFiles.size());
+    long start = System.nanoTime(), bytes = 0;
+    if(mode=='e' && Options.arFile!=null)
+    {
+        ar = openArchive();
+        arDirs = arDirs(nFiles);
+    }
+    if(threads <= 1)
+    {
+        for(File nFile : nFiles)
+        {
+            runFile(nFile,out);
+            bytes += nFile.length();
+        }
+    }
+    else
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<byte[]> cs = new ExecutorCompletionService<>(pool);
+        for(File nFile : nFiles)
+        {
+            cs.submit(() -> runTask(nFile));
+            bytes += nFile.length();
+        }
+        // Print each file's output as soon as it has been fully processed
+        for(int i=0; i < nFiles.size(); i++)
+        {
+            try
+            {
+                byte[] log = cs.take().get();
+                out.write(log,0,log.length);
+            }
+            catch(Exception ex)
+            {
+                out.println("Error in (Batch):");
+                ex.printStackTrace(out);
+            }
+        }
+        pool.shutdown();
+    }
+    if(ar!=null) closeArchive();
+    if(nFiles.size() > 1) printStats(nFiles.size(),bytes,start);
+}
+
+// Opens the archive that all of the batch's images go into
+private Archive openArchive()
+{
+    try
+    {
+        return new Archive(Options.arFile,Options.arType,Options.arLevel);
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (openArchive):");
+        ex.printStackTrace(out);
+        System.exit(1);
+        return null;
+    }
+}
+
+// The folder each file's images go into in the batch archive: the file's
+// directory (relative to the one all the files are in) & its NORI name, e.g.
+// sub/a_nri/. If 2 files would share a folder, the 2nd gets a # added to it.
+private static Map<File,String> arDirs(List<File> nFiles)
+{
+    Path[] dirs = new Path[nFiles.size()];
+    Path base = null;
+    for(int i=0; i < dirs.length; i++)
+    {
+        dirs[i] = nFiles.get(i).getAbsoluteFile().toPath().normalize();
+        dirs[i] = dirs[i].getParent();
+        if(i==0) base = dirs[i];
+        while(base!=null && !dirs[i].startsWith(base)) base = base.getParent();
+    }
+    Map<File,String> arDirs = new HashMap<File,String>();
+    Set<String> used = new HashSet<String>();
+    for(int i=0; i < dirs.length; i++)
+    {
+        Path rel = (base!=null) ? base.relativize(dirs[i]) : dirs[i];
+        String dir = rel.toString().replace(File.separatorChar,'/');
+        if(!dir.isEmpty()) dir += "/";
+        NORI nf = new NORI();
+        nf.setNORI(nFiles.get(i));
+        dir += nf.dname;
+        String arDir = dir;
+        for(int n=2; !used.add(arDir); n++) arDir = dir+"_"+n;
+        arDirs.put(nFiles.get(i),arDir+"/");
+    }
+    return arDirs;
+}
+
+private void closeArchive()
+{
+    try
+    {
+        ar.close();
+        out.println(dLn);
+        out.println("Archived "+ar.size()+" images in "+ar.getPath());
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (closeArchive):");
+        ex.printStackTrace(out);
+    }
+}
+
+// Runs a single file with its output captured, for use by the worker threads
+private byte[] runTask(File nFile)
+{
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(log,true);
+    runFile(nFile,ps);
+    ps.flush();
+    return log.toByteArray();
+}
+
+// Reads, inflates (if needed), and then Extracts/Analyzes a single NORI file.
+// Whatever goes wrong is reported in the file's own output, the batch goes on.
+private void runFile(File nFile, PrintStream ps)
+{
+    ps.println(dLn);
+    try
+    {
+        ByteBuffer nFileBB = zInflate(mapFile(nFile),ps);
+        switch(mode)
+        {
+        case 'e':
+            String arDir = (ar==null) ? null : arDirs.get(nFile);
+            Extract opt_e = new Extract(nFileBB,nFile,ps,ar,arDir);
+            break;
+        case 'A':
+            Analyze opt_A = new Analyze(nFileBB,nFile,true,ps);
+            break;
+        default:
+            Analyze opt_a = new Analyze(nFileBB,nFile,false,ps);
+            break;
+        }
+    }
+    catch(Exception ex)
+    {
+        ps.println("Error in (Batch): "+nFile);
+        ex.printStackTrace(ps);
+    }
+}
+
+// Aggregate throughput of the whole batch
+private void printStats(int files, long bytes, long start)
+{
+    double secs = (System.nanoTime()-start)/1e9;
+    double mb = bytes/1048576.0;
+    out.println(dLn);
+    out.printf("Processed %d files (%.2f MB) in %.2f s%n",files,mb,secs);
+    out.printf("Throughput: %.2f files/s, %.2f MB/s%n",files/secs,mb/secs);
+}
+
+// Checks for and decompresses zlib compression if found. A file that doesn't
+// inflate to its full size is thrown, rather than handed on half zeroed.
+static ByteBuffer zInflate(ByteBuffer in, PrintStream out) throws IOException
+{
+    if(Zlib.isWrapped(in))
+    {
+        try
+        {
+            ByteBuffer nori = ByteBuffer.allocate(Zlib.actualSize(in));
+            long start = System.nanoTime();
+            int size = Zlib.inflate(in,nori);
+            if(size!=nori.capacity())
+                throw new IOException("Decompression ended early! Got "+size
+                                      +" of "+nori.capacity()+" bytes");
+            out.println("Decompression successful!");
+            Zlib.printRate(out,"Inflated",in.capacity(),size,start);
+            out.println();
+            nori.position(0);
+            return nori.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        catch(DataFormatException|IllegalArgumentException ex)
+        {
+            throw new IOException("Decompression failed! "+ex.getMessage(),ex);
+        }
+    }
+    else
+    {
+        return in;
+    }
+}
+
+// Maps the file into memory (read-only) instead of copying it onto the heap.
+// The OS pages the data in as it gets read, and keeps it cached between runs.
+static ByteBuffer mapFile(File file) throws IOException
+{
+    try(FileChannel fc = FileChannel.open(file.toPath()))
+    {
+        ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY,0,fc.size());
+        return bb.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
+}
@@ -0,0 +1,367 @@
+/*
+BinCfg.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+/**
+Class Description:
+The BinCfg class is the binary version of the config file (file.nri.bcfg). It
+has everything the XML config has, plus the palette, so there is no _pal.bin
+next to it. Analyze mode writes it w/ -bin, create mode takes either kind, and
+mode x converts one kind into the other.
+
+Dev Notes:
+Both kinds of config are a NORI model (see GetCfgData.load()), so converting is
+loading one & saving it as the other. Since the model has everything the config
+has, XML -> binary -> XML gives back the same XML (for configs TNT wrote).
+
+The blobs that are base64 in the XML (entryBlocks, UnknownData1/2, mcParam7/8)
+are stored as raw bytes, the int arrays are written & read in bulk. There is
+nothing to parse, so loading & saving are about as fast as the disk.
+
+Format (little-endian ints, strings & blobs are a length + UTF-8/raw bytes):
+sig "TNTC", version, name, 31 header ints (xml_tag 0-30), bpos, apos,
+bmpOffsets[bmpStructs], bmpCount[bmpStructs], totalBMP, bmpSpecs[totalBMP*6],
+animOffsets[anims], title[anims], numFrames[anims], frameOffsets[frames],
+frameDataTop[frames*2], totalPlanes, planeData[totalPlanes*7], then (if not
+version 300) numCoordSets[frames], # of coordSets, coordSets[*2], then for each
+frame its FrameDataBottom (entryBlocks (if any), UnknownData1 x2, sfx,
+UnknownData2, hasMCValues & if 1 mcValues[7], mcParam7 & mcParam8), & last the
+palette (length 0 if none).
+
+Development Priority: LOW
+*/
+public class BinCfg
+{
+// class variables
+private static final int sig=0x43544E54, ver=1;
+private static final Charset UTF8=StandardCharsets.UTF_8;
+private ByteBuffer bb;
+private FileChannel fc;// only when writing
+
+// constructor for BinCfg class
+private BinCfg(ByteBuffer BB, FileChannel FC)
+{
+    bb = BB;
+    fc = FC;
+}
+
+// Whether the file is a binary config (rather than XML)
+public static boolean isBinCfg(File config) throws IOException
+{
+    try(FileChannel in = FileChannel.open(config.toPath()))
+    {
+        ByteBuffer four = mkLEBB(new byte[4]);
+        while(four.hasRemaining() && in.read(four) >= 0);
+        return !four.hasRemaining() && four.getInt(0)==sig;
+    }
+}
+
+// Converts an XML config into a binary one, or the other way around
+public static void convert(File config, PrintStream out)
+{
+    try
+    {
+        if(isBinCfg(config))
+        {
+            NORI m = read(config);
+            Analyze.saveCfg(m,out);
+            out.println(config+" -> "+m.dir+m.name+".cfg");
+        }
+        else
+        {
+            NORI m = GetCfgData.load(config);
+            File pal = new File(m.dir+m.name+"_pal.bin");
+            if(m.hasPalette==1 && pal.isFile())
+                m.palBytes = Files.readAllBytes(pal.toPath());
+            File bin = new File(m.dir+m.name+".bcfg");
+            write(m,bin);
+            out.println(config+" -> "+bin);
+        }
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (BinCfg):");
+        ex.printStackTrace(out);
+    }
+}
+
+/*########################################################################*/
+/*############################### WRITE ##################################*/
+
+// Saves the model (as Analyzer or GetCfgData.load() left it)
+public static void write(NORI nf, File bin) throws IOException
+{
+    try(FileChannel out = FileChannel.open(bin.toPath(),
+            StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE))
+    {
+        BinCfg w = new BinCfg(
+            ByteBuffer.allocateDirect(1<<16).order(ByteOrder.LITTLE_ENDIAN),out);
+        w.putModel(nf);
+        w.flush();
+    }
+}
+
+private void putModel(NORI nf) throws IOException
+{
+    int frames = nf.frameStart[nf.anims];
+    int planes = nf.planeStart[frames];
+    putInt(sig);
+    putInt(ver);
+    putStr(nf.name);
+    putInts(nf.hdrValues());
+    putInt(nf.bpos);
+    putInt(nf.apos);
+    // BMP Offsets & BMP Specs
+    putInts(nf.bmpOffsets,0,nf.bmpStructs);
+    putInts(nf.bmpCount,0,nf.bmpStructs);
+    putInt(nf.totalBMP);
+    for(int[] specs : nf.bmpSpecs) putInts(specs,0,6);
+    // Animation Data
+    putInts(nf.animOffsets,0,nf.anims);
+    for(int a=0; a < nf.anims; a++) putStr(nf.title[a]);
+    putInts(nf.numFrames,0,nf.anims);
+    putInts(nf.frameOffsets,0,frames);
+    putInts(nf.frameDataTop,0,2*frames);
+    putInt(planes);
+    putInts(nf.planeData,0,7*planes);
+    if(nf.notV300)
+    {
+        int coords = nf.coordStart[frames];
+        for(int g=0; g < frames; g++) putInt(nf.numCoordSets(g));
+        putInt(coords);
+        putInts(nf.coordSets,0,2*coords);
+    }
+    // FrameDataBottom
+    for(int g=0; g < frames; g++)
+    {
+        if(nf.hasEB)
+        {
+            for(byte[] eb : nf.entryBlocks[g]) putBytes(eb);
+        }
+        putBytes(nf.unknownData1[g][0]);
+        putBytes(nf.unknownData1[g][1]);
+        putStr(nf.soundEffect[g]);
+        putBytes(nf.unknownData2[g]);
+        if(nf.maybeMCV)
+        {
+            putInt(nf.hasMCValues[g]);
+            if(nf.hasMCValues[g]==1)
+            {
+                putInts(nf.mcValues,7*g,7);
+                putBytes(Base64.getDecoder().decode(nf.mcParam7[g]));
+                putBytes(nf.mcParam8[g]);
+            }
+        }
+    }
+    putBytes(nf.palBytes==null ? new byte[0] : nf.palBytes);
+}
+
+private void putInt(int i) throws IOException
+{
+    if(bb.remaining() < 4) flush();
+    bb.putInt(i);
+}
+
+private void putInts(int[] ia) throws IOException
+{
+    putInts(ia,0,ia.length);
+}
+
+// Bulk put, a buffer full at a time
+private void putInts(int[] ia, int off, int len) throws IOException
+{
+    while(len > 0)
+    {
+        int n = Math.min(len,bb.remaining()/4);
+        if(n==0)
+        {
+            flush();
+            continue;
+        }
+        bb.asIntBuffer().put(ia,off,n);
+        bb.position(bb.position()+4*n);
+        off += n;
+        len -= n;
+    }
+}
+
+private void putBytes(byte[] ba) throws IOException
+{
+    putInt(ba.length);
+    for(int off=0,n; off < ba.length; off+=n)
+    {
+        if(!bb.hasRemaining()) flush();
+        n = Math.min(ba.length-off,bb.remaining());
+        bb.put(ba,off,n);
+    }
+}
+
+private void putStr(String s) throws IOException
+{
+    putBytes(s.getBytes(UTF8));
+}
+
+private void flush() throws IOException
+{
+    bb.flip();
+    while(bb.hasRemaining()) fc.write(bb);
+    bb.clear();
+}
+
+/*########################################################################*/
+/*################################ READ ##################################*/
+
+// Loads a binary config as a NORI model (the same as GetCfgData.load())
+public static NORI read(File bin) throws IOException
+{
+    try(FileChannel in = FileChannel.open(bin.toPath()))
+    {
+        ByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY,0,in.size());
+        BinCfg r = new BinCfg(map.order(ByteOrder.LITTLE_ENDIAN),null);
+        if(r.bb.remaining() < 8 || r.bb.getInt()!=sig)
+            throw new IOException("Not a binary config: "+bin);
+        int v = r.bb.getInt();
+        if(v!=ver)
+            throw new IOException("Unknown binary config version: "+v);
+        NORI m = new NORI();
+        m.setDir(bin);
+        r.getModel(m);
+        return m;
+    }
+}
+
+private void getModel(NORI m) throws IOException
+{
+    m.name = getStr();
+    m.setHdrValues(getInts(31));
+    m.setVerSpecific();
+    m.bpos = bb.getInt();
+    m.apos = bb.getInt();
+    // BMP Offsets & BMP Specs
+    m.bmpOffsets = getInts(m.bmpStructs);
+    m.bmpCount   = getInts(m.bmpStructs);
+    m.totalBMP   = bb.getInt();
+    m.bmpSpecs   = new int[m.totalBMP][];
+    for(int i=0; i < m.totalBMP; i++) m.bmpSpecs[i] = getInts(6);
+    // Animation Data
+    m.animOffsets = getInts(m.anims);
+    m.title = new String[m.anims];
+    for(int a=0; a < m.anims; a++) m.title[a] = getStr();
+    m.numFrames = getInts(m.anims);
+    m.frameStart = new int[m.anims+1];
+    for(int a=0; a < m.anims; a++)
+    {
+        m.frameStart[a+1] = m.frameStart[a]+m.numFrames[a];
+    }
+    int frames = m.totalFrames = m.frameStart[m.anims];
+    m.frameOffsets = getInts(frames);
+    m.frameDataTop = getInts(2*frames);
+    m.planeStart = new int[frames+1];
+    for(int g=0; g < frames; g++)
+    {
+        m.planeStart[g+1] = m.planeStart[g]+m.frameDataTop[2*g+1];
+    }
+    m.totalPlanes = bb.getInt();
+    if(m.totalPlanes!=m.planeStart[frames])
+        throw new IOException("Bad binary config: plane count");
+    m.planeData = getInts(7*m.totalPlanes);
+    if(m.notV300)
+    {
+        m.coordStart = new int[frames+1];
+        for(int g=0; g < frames; g++)
+        {
+            m.coordStart[g+1] = m.coordStart[g]+bb.getInt();
+        }
+        int coords = bb.getInt();
+        if(coords!=m.coordStart[frames])
+            throw new IOException("Bad binary config: coordSet count");
+        m.coordSets = getInts(2*coords);
+    }
+    // FrameDataBottom
+    if(m.hasEB) m.entryBlocks = new byte[frames][6][];
+    m.unknownData1 = new byte[frames][2][];
+    m.soundEffect  = new String[frames];
+    m.unknownData2 = new byte[frames][];
+    if(m.maybeMCV)
+    {
+        m.hasMCValues = new int[frames];
+        m.mcValues    = new int[7*frames];
+        m.mcParam7    = new String[frames];
+        m.mcParam8    = new byte[frames][];
+    }
+    for(int g=0; g < frames; g++)
+    {
+        if(m.hasEB)
+        {
+            for(int i=0; i < 6; i++) m.entryBlocks[g][i] = getBytes();
+        }
+        m.unknownData1[g][0] = getBytes();
+        m.unknownData1[g][1] = getBytes();
+        m.soundEffect[g] = getStr();
+        m.unknownData2[g] = getBytes();
+        if(m.maybeMCV)
+        {
+            m.hasMCValues[g] = bb.getInt();
+            if(m.hasMCValues[g]==1)
+            {
+                bb.asIntBuffer().get(m.mcValues,7*g,7);
+                bb.position(bb.position()+28);
+                m.mcParam7[g] = Base64.getEncoder().encodeToString(getBytes());
+                m.mcParam8[g] = getBytes();
+            }
+        }
+    }
+    byte[] pal = getBytes();
+    if(pal.length > 0) m.palBytes = pal;
+}
+
+// Bulk get of n ints
+private int[] getInts(int n) throws IOException
+{
+    if(n < 0 || n > bb.remaining()/4)
+        throw new IOException("Bad binary config: "+n+" ints @"+bb.position());
+    int[] ia = new int[n];
+    bb.asIntBuffer().get(ia);
+    bb.position(bb.position()+4*n);
+    return ia;
+}
+
+private byte[] getBytes() throws IOException
+{
+    int n = bb.getInt();
+    if(n < 0 || n > bb.remaining())
+        throw new IOException("Bad binary config: "+n+" bytes @"+bb.position());
+    byte[] ba = new byte[n];
+    bb.get(ba);
+    return ba;
+}
+
+private String getStr() throws IOException
+{
+    return new String(getBytes(),UTF8);
+}
+
+// Shorthand function to wrap a byte array in a little-endian bytebuffer
+private static ByteBuffer mkLEBB(byte[] ba)
+{
+    return ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
+}
+}
@@ -15,9 +15,11 @@ GNU General Public License for more details.
 */
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 import static java.lang.System.out;
 /**
@@ -30,6 +32,19 @@ Creating new NORI files is honestly of little use to the Libre Trickster project
 so this part of the program is little more than a curiosity. Nonetheless, it has
 a high demand among the userbase.
 
+The file is never held in memory. Once fixNORI has worked out the sizes, every
+section is written in file order through a 64K buffer to a FileChannel (through
+a Deflater first w/ zlib). The BMPs are read twice, one at a time: first to
+check them & get the raw & RLE sizes, then again when their data is written. So
+only a few bitmaps are in memory at once, on top of the config's NORI model.
+
+Both passes use Options.threads worker threads. All of the checks run at once &
+every BMP that doesn't match its bmpSpecs is reported together. The writing
+stays in order, while the workers read (& RLE encode) the next few bitmaps ahead
+of it. BMPs of 64K or more are memory-mapped, so only their pixels are copied.
+
+The file is written to name.tmp & only moved into place when it is complete.
+
 Development Priority: LOW
 */
 public class Create
@@ -39,8 +54,18 @@ private static NORI nf;
 private static ByteBuffer bb;
 static Charset UTF8=StandardCharsets.UTF_8,EUC_KR=Charset.forName("EUC-KR");
 private static byte xCD = (byte)0xCD;
-private static int pos, zlibSize;
-private static byte[] nfba, palette, tmpData, finalBA;
+private static FileChannel fc;
+private static Deflater zlib;// only when zlib compressing
+private static ByteBuffer zbb;
+private static long zNanos;// time spent deflating
+private static String bmpPath;
+private static String[] bmpFiles;
+private static int[] rleSizes;// null if RLE can't be used
+private static boolean[] psFixed;// whether readBMP() dropped 2 extra bytes
+private static long[] bmpStamps;// size & modification time, when checked
+private static ExecutorService pool;// null w/ only 1 thread
+private static int workers;
+private static final int minMap = 1<<16;// smallest BMP that gets mapped
 // constructor for Create class
 public Create(File config, String bmpDir, boolean zlibCompress)
 {
@@ -52,18 +77,64 @@ public Create(File config, String bmpDir, boolean zlibCompress)
         // Get XML Data
         GetCfgData gcd = new GetCfgData(config,nf);
         out.println("NORI filename: "+nf.name);
-        // Get image data from BMP files
+        // Worker threads for the BMPs, if there is more than 1
+        workers = Math.min(Options.threads,nf.totalBMP);
+        if(workers > 1) pool = Executors.newFixedThreadPool(workers);
+        else workers = 0;
+        // Check the BMP files & size up their image data
         getImgData(bmpDir);
-        out.println("Total image data bytes: "+nf.bmpData.length);
+        out.println("Total image data bytes: "+nf.bmpDataSize);
+        // Use RLE instead if it makes the image data smaller
+        tryRLE();
+        // The sizes are final from here on, so they have to be right
+        checkDataSizes();
         // Run size fixes & disable uncouth features
         nf.fixNORI(true);
-        // Setup NORI file byte array and bytebuffer
-        nfba = new byte[nf.fsize];
-        out.println("NORI file size: "+nfba.length);
-        bb = mkLEBB(nfba);
-        // Add NORI header to the nfba
+        out.println("NORI file size: "+nf.fsize);
+        // Set NORI file location and name
+        File nori = new File(nf.dir+nf.name);
+        File nori_orig = new File(nf.dir+nf.name+".orig");
+        File nori_tmp = new File(nf.dir+nf.name+".tmp");
+        try
+        {
+            // Write the NORI file
+            writeNORI(nori_tmp.toPath(),zlibCompress);
+            // Make backup file if it doesn't already exist
+            if(nori.exists() && !nori_orig.exists()) nori.renameTo(nori_orig);
+            Files.move(nori_tmp.toPath(),nori.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            Files.deleteIfExists(nori_tmp.toPath());
+        }
+        out.println("NORI File Creation Complete.\n");
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (CM):");
+        ex.printStackTrace(System.out);
+    }
+    finally
+    {
+        if(pool!=null) pool.shutdownNow();
+        pool = null;
+    }
+}
+
+private static void writeNORI(Path nPath, boolean zlibCompress)
+throws Exception
+{
+    try(FileChannel nFile = FileChannel.open(nPath,
+            StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE))
+    {
+        fc = nFile;
+        bb = ByteBuffer.allocateDirect(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+        if(zlibCompress) startZlib();
+        // Add NORI header
         add_NORI_HDR();
-        // Add GAWI header to the nfba
+        // Add GAWI header
         add_GAWI_HDR();
         // Add Palette section if it exists & bpp=8
         if(nf.hasPalette==1 && nf.bpp==8) add_PAL();
@@ -76,39 +147,13 @@ public Create(File config, String bmpDir, boolean zlibCompress)
         // Add Animations, FrameDataTops, Plane Data, & FrameDataBottoms
         add_ANIM();
         out.println("Finalizing file...");
-        if(zlibCompress)
-        {
-            Deflater zlib = new Deflater();
-            zlib.setInput(nfba);
-            zlib.finish();
-            byte[] tmpBA = new byte[nf.fsize];
-            zlibSize = zlib.deflate(tmpBA);
-            out.println("Compressed Size: "+(zlibSize+12));
-            zlib.end();
-            finalBA = new byte[12+zlibSize];
-            ByteBuffer finalBB = mkLEBB(finalBA);
-            finalBB.putInt(41136);// xB0A00000
-            finalBB.putInt(nfba.length);// Actual Size
-            finalBB.putInt(zlibSize);// Compressed Size
-            finalBB.put(tmpBA,0,zlibSize);// Compressed Data w/ zlib header
-        }
-        else
-        {
-            finalBA = nfba;
-        }
-        // Set NORI file location and name
-        File nori = new File(nf.dir+nf.name);
-        File nori_orig = new File(nf.dir+nf.name+".orig");
-        // Make backup file if it doesn't already exist
-        if(nori.exists() && !nori_orig.exists()) nori.renameTo(nori_orig);
-        // Write NORI to file
-        Files.write(nori.toPath(),finalBA);
-        out.println("NORI File Creation Complete.\n");
+        flush();
+        if(zlibCompress) endZlib();
     }
-    catch(Exception ex)
+    finally
     {
-        out.println("Error in (CM):");
-        ex.printStackTrace(System.out);
+        zlib = null;
+        fc = null;
     }
 }
 
@@ -116,7 +161,6 @@ private static void getImgData(String bmpDir)
 {
     try
     {
-        JBL bl = new JBL();
         // Gather the list of bmp files
         File dataDir = new File(bmpDir);
         String[] tmpFL = dataDir.list();
@@ -129,57 +173,42 @@ private static void getImgData(String bmpDir)
         }
         // Alphabetic ordering
         Arrays.sort(fl);
-        // Pull the file contents into a byte array for later use
+        bmpPath = bmpDir;
+        bmpFiles = fl;
+        rleSizes = new int[nf.totalBMP];
+        psFixed = new boolean[nf.totalBMP];
+        bmpStamps = new long[2*nf.totalBMP];
+        // Check every BMP, the data itself is read again when it's written
         out.println("Absorbing BMP files:");
-        // Prep bmpData array
-        for(int i=0; i < nf.totalBMP; i++)
+        List<Future<String>> checks = new ArrayList<Future<String>>();
+        for(int i=0; i < fl.length; i++)
         {
-            nf.bmpDataSize += nf.bmpSpecs[i][0];
+            int bmpIdx = i;
+            checks.add(submit(() -> checkBMP(bmpIdx)));
         }
-        nf.bmpData = new byte[nf.bmpDataSize];
-        ByteBuffer bmpData = mkLEBB(nf.bmpData);
-        String end;
-        // Fill bmpData array
+        // Output in order, w/ every problem found instead of just the first
+        int problems = 0;
         for(int i=0; i < fl.length; i++)
         {
             // output full file name
-            out.printf(bmpDir+fl[i]);
-            end = "";
-            // Read BMP into a byte array & wrap in ByteBuffer
-            byte[] bmp = file2BA(bmpDir+fl[i]);
-            ByteBuffer img = mkLEBB(bmp);
-            // Set JBL BMP variables
-            bl.getBitmapVars(bmp);
-            // Strip the header off the image
-            img.position(bl.dataStart);
-            byte[] hdrless = bl.getImgBytes(img,0);
-            // NORI format uses top-down scanlines
-            byte[] revData = bl.reverseRows(hdrless);
-            // Strip any padding off the pixels
-            byte[] rawData = bl.stripPadding(revData);
-            // PhotoSh*p BMP fix
-            if(bl.w!=2 && nf.bmpSpecs[i][0]==(rawData.length-2))
-            {
-                tmpData = new byte[nf.bmpSpecs[i][0]];
-                for(int x=0; x < nf.bmpSpecs[i][0]; x++)
-                {
-                    tmpData[x] = rawData[x];
-                }
-                rawData = tmpData;
-                end = " (PS BMP Fixed)";
-            }
-            out.println(end);
-            // Crash if image size doesn't match w*h*(bpp/8) calculation
-            if(nf.bmpSpecs[i][0]!=rawData.length)
-            {
-                out.println("BMP #"+i+"'s pixel data size does not match!");
-                out.println("Expected: "+nf.bmpSpecs[i][0]);
-                out.println("Received: "+rawData.length);
-                out.println("Causes: incorrect bpp, w, h, &/or input BMP");
-                System.exit(1);
-            }
-            // Add raw data to bmpData array
-            bmpData.put(rawData);
+            out.print(bmpDir+fl[i]);
+            String problem = checks.get(i).get();
+            out.println(psFixed[i] ? " (PS BMP Fixed)" : "");
+            if(problem==null) continue;
+            out.println(problem);
+            problems++;
+        }
+        // Crash if any image size doesn't match w*h*(bpp/8) calculation
+        if(problems > 0)
+        {
+            out.println(problems+" of "+fl.length+" BMPs do not match!");
+            out.println("Causes: incorrect bpp, w, h, &/or input BMP");
+            System.exit(1);
+        }
+        for(int i=0; i < fl.length; i++)
+        {
+            nf.bmpDataSize += rawSize(i);
+            if(rleSizes!=null && rleSizes[i] < 0) rleSizes = null;
         }
     }catch(Exception ex)
     {
@@ -188,182 +217,420 @@ private static void getImgData(String bmpDir)
     }
 }
 
-private static void add_NORI_HDR()
-{
-    bb.putInt(nf.fsig);
-    bb.putInt(nf.noriVer);
-    bb.putInt(nf.nParam1);
-    bb.putInt(nf.nParam2);
-    bb.putInt(nf.nParam3);
-    bb.putInt(nf.nParam4);
-    bb.putInt(nf.nParam5);
-    bb.putInt(nf.anims);
-    bb.putInt(nf.woGawi);
-    bb.putInt(nf.fsize);
-}
-
-private static void add_GAWI_HDR()
-{
-    bb.putInt(nf.gsig);
-    bb.putInt(nf.gawiVer);
-    bb.putInt(nf.bpp);
-    bb.putInt(nf.compressed);
-    bb.putInt(nf.hasPalette);
-    bb.putInt(nf.gParam4);
-    bb.putInt(nf.gParam5);
-    bb.putInt(nf.gParam6);
-    bb.putInt(nf.gParam7);
-    bb.putInt(nf.bmpStructs);
-    bb.putInt(nf.gsize);
-}
-
-private static void add_PAL()
-{
-    bb.putInt(nf.psig);
-    bb.putInt(nf.palVer);
-    bb.putInt(nf.pParam1);
-    bb.putInt(nf.pParam2);
-    bb.putInt(nf.pParam3);
-    bb.putInt(nf.pParam4);
-    bb.putInt(nf.divided);
-    bb.putInt(nf.psize);
-    nf.palBytes = file2BA(nf.dir+nf.name+"_pal.bin");
-    bb.put(nf.palBytes);
-    if(nf.psize==808)
+// Checks bitmap i's BMP & gets its RLE size (-1 if a row is too wide for RLE).
+// Returns what is wrong w/ the BMP, or null if nothing is.
+private static String checkBMP(int i)
+{
+    byte[] rawData;
+    try
+    {
+        stampBMP(i,bmpStamps,2*i);
+        rawData = readBMP(i);
+    }
+    catch(Exception ex)
+    {
+        return "BMP #"+i+" can't be read: "+ex;
+    }
+    if(rawSize(i)!=rawData.length)
+    {
+        return "BMP #"+i+"'s pixel data size does not match! Expected: "+
+               rawSize(i)+", Received: "+rawData.length;
+    }
+    int w = nf.bmpSpecs[i][1], h = nf.bmpSpecs[i][2];
+    byte[] enc = RLE.encode(rawData,0,w,h,nf.bpp/8);
+    rleSizes[i] = (enc==null) ? -1 : enc.length;
+    return null;
+}
+
+// Puts the size & modification time of bitmap i's BMP in stamps at pos
+private static void stampBMP(int i, long[] stamps, int pos) throws IOException
+{
+    Path bmp = Paths.get(bmpPath+bmpFiles[i]);
+    stamps[pos] = Files.size(bmp);
+    stamps[pos+1] = Files.getLastModifiedTime(bmp).toMillis();
+}
+
+// Bitmap i's pixels from its BMP: top-down & w/o the row padding
+private static byte[] readBMP(int i) throws IOException
+{
+    JBL bl = new JBL();
+    ByteBuffer img = mapBMP(bmpPath+bmpFiles[i]);
+    // Set JBL BMP variables, only the header is copied out
+    byte[] hdr = new byte[Math.min(img.capacity(),54)];
+    img.get(0,hdr);
+    bl.getBitmapVars(hdr);
+    // Strip the header off the image
+    img.position(bl.dataStart);
+    // NORI format uses top-down scanlines w/o any padding
+    byte[] rawData = bl.fromBMP(img);
+    // PhotoSh*p BMP fix
+    psFixed[i] = bl.w!=2 && rawSize(i)==(rawData.length-2);
+    if(psFixed[i]) rawData = Arrays.copyOf(rawData,rawSize(i));
+    return rawData;
+}
+
+// Maps a BMP file. Small ones are just read, b/c mapping costs more than that.
+private static ByteBuffer mapBMP(String fStr) throws IOException
+{
+    try(FileChannel in = FileChannel.open(Paths.get(fStr)))
     {
-        bb.putInt(nf.mainS);
-        bb.putInt(nf.mainE);
+        long size = in.size();
+        if(size >= minMap)
+            return in.map(FileChannel.MapMode.READ_ONLY,0,size);
+        ByteBuffer bmp = ByteBuffer.allocate((int)size);
+        while(bmp.hasRemaining() && in.read(bmp) >= 0);
+        return bmp.flip();
     }
 }
 
-private static void add_bmpOffsets()
+// Runs the task on a worker thread, or right away if there are none
+private static <T> Future<T> submit(Callable<T> task)
 {
-    for(int i=0; i < nf.bmpStructs; i++)
+    if(pool!=null) return pool.submit(task);
+    FutureTask<T> ft = new FutureTask<T>(task);
+    ft.run();
+    return ft;
+}
+
+// The size of bitmap i's pixels, w*h*(bpp/8)
+private static int rawSize(int i)
+{
+    return nf.bmpSpecs[i][1]*nf.bmpSpecs[i][2]*(nf.bpp/8);
+}
+
+// Uses RLE for every bitmap if it is smaller overall. It's all or nothing, b/c
+// compressed is a flag for the whole file. Only the sizes are known here, the
+// bitmaps are encoded again as they are written. Either way, the flag, sizes &
+// offsets from the config are all replaced, since they can be for the other.
+private static void tryRLE()
+{
+    int rleSize = 0;
+    for(int i=0; rleSizes!=null && i < nf.totalBMP; i++)
     {
-        bb.putInt(nf.bmpOffsets[i]);
+        rleSize += rleSizes[i];
     }
+    // a row too wide for RLE leaves rleSizes null
+    if(rleSizes!=null) out.println("RLE image data bytes: "+rleSize);
+    nf.compressed = (rleSizes!=null && rleSize < nf.bmpDataSize) ? 1 : 0;
+    nf.bmpDataSize = 0;
+    for(int i=0; i < nf.totalBMP; i++)
+    {
+        nf.bmpSpecs[i][0] = (nf.compressed==1) ? rleSizes[i] : rawSize(i);
+        nf.bmpDataSize += nf.bmpSpecs[i][0];
+    }
+    setBmpOffsets();
 }
 
-private static void add_BMP()
+// The offsets for the final sizes. Compressed files store each offset minus
+// i*28, which Analyzer.setBmpOffsets adds back when reading.
+private static void setBmpOffsets()
 {
+    int bias = (nf.compressed==1) ? 28 : 0;
     for(int i=0,offset=0,bmpIdx=0; i < nf.bmpStructs; i++)
     {
-        bb.putInt(nf.bmpCount[i]);
+        nf.bmpOffsets[i] = offset-i*bias;
+        offset += 4;
         for(int x=0; x < nf.bmpCount[i]; x++)
         {
-            bb.putInt(nf.bmpSpecs[bmpIdx][0]);
-            bb.putInt(nf.bmpSpecs[bmpIdx][1]);
-            bb.putInt(nf.bmpSpecs[bmpIdx][2]);
-            bb.putInt(nf.bmpSpecs[bmpIdx][3]);
-            bb.putInt(nf.bmpSpecs[bmpIdx][4]);
-            bb.putInt(nf.bmpSpecs[bmpIdx][5]);
-            bb.put(nf.bmpData, offset, nf.bmpSpecs[bmpIdx][0]);
-            offset += nf.bmpSpecs[bmpIdx][0];
-            bmpIdx++;
+            offset += 24+nf.bmpSpecs[bmpIdx++][0];
         }
     }
 }
 
-private static void add_animOffsets()
+// Every bmp_size has to be the size of the data that add_BMP() will write, the
+// one checkBMP() got. Otherwise the header sizes & offsets would all be wrong.
+private static void checkDataSizes()
+{
+    for(int i=0; i < nf.totalBMP; i++)
+    {
+        int size = (nf.compressed==1) ? rleSizes[i] : rawSize(i);
+        if(nf.bmpSpecs[i][0]!=size)
+            throw new IllegalStateException("BMP #"+i+"'s bmp_size is "+
+                nf.bmpSpecs[i][0]+", but its data is "+size+" bytes");
+    }
+}
+
+private static void add_NORI_HDR() throws IOException
+{
+    putInt(nf.fsig);
+    putInt(nf.noriVer);
+    putInt(nf.nParam1);
+    putInt(nf.nParam2);
+    putInt(nf.nParam3);
+    putInt(nf.nParam4);
+    putInt(nf.nParam5);
+    putInt(nf.anims);
+    putInt(nf.woGawi);
+    putInt(nf.fsize);
+}
+
+private static void add_GAWI_HDR() throws IOException
+{
+    putInt(nf.gsig);
+    putInt(nf.gawiVer);
+    putInt(nf.bpp);
+    putInt(nf.compressed);
+    putInt(nf.hasPalette);
+    putInt(nf.gParam4);
+    putInt(nf.gParam5);
+    putInt(nf.gParam6);
+    putInt(nf.gParam7);
+    putInt(nf.bmpStructs);
+    putInt(nf.gsize);
+}
+
+private static void add_PAL() throws IOException
+{
+    putInt(nf.psig);
+    putInt(nf.palVer);
+    putInt(nf.pParam1);
+    putInt(nf.pParam2);
+    putInt(nf.pParam3);
+    putInt(nf.pParam4);
+    putInt(nf.divided);
+    putInt(nf.psize);
+    // binary configs have the palette in them
+    if(nf.palBytes==null) nf.palBytes = file2BA(nf.dir+nf.name+"_pal.bin");
+    put(nf.palBytes);
+    if(nf.psize==808)
+    {
+        putInt(nf.mainS);
+        putInt(nf.mainE);
+    }
+}
+
+private static void add_bmpOffsets() throws IOException
+{
+    putInts(nf.bmpOffsets,0,nf.bmpStructs);
+}
+
+private static void add_BMP() throws Exception
+{
+    // The workers get the next few bitmaps ready while this one is written
+    ArrayDeque<Future<byte[]>> ahead = new ArrayDeque<Future<byte[]>>();
+    for(int i=0,bmpIdx=0,next=0; i < nf.bmpStructs; i++)
+    {
+        putInt(nf.bmpCount[i]);
+        for(int x=0; x < nf.bmpCount[i]; x++,bmpIdx++)
+        {
+            for(; next < nf.totalBMP && next <= bmpIdx+workers; next++)
+            {
+                int n = next;
+                ahead.add(submit(() -> bmpData(n)));
+            }
+            putInts(nf.bmpSpecs[bmpIdx],0,6);
+            put(ahead.remove().get());
+        }
+    }
+}
+
+// Bitmap i's data, as it goes in the file
+private static byte[] bmpData(int i) throws IOException
+{
+    int[] specs = nf.bmpSpecs[i];
+    byte[] data = readBMP(i);
+    if(nf.compressed==1)
+        data = RLE.encode(data,0,specs[1],specs[2],nf.bpp/8);
+    if(data!=null && data.length==specs[0]) return data;
+    // The size was checked before anything was written, so only a BMP that
+    // was changed since then can get here
+    long[] now = new long[2];
+    stampBMP(i,now,0);
+    String what = (data==null) ? "can't be RLE encoded anymore" :
+        "is "+data.length+" bytes, not "+specs[0];
+    if(now[0]!=bmpStamps[2*i] || now[1]!=bmpStamps[2*i+1])
+        what += " (the BMP was changed after it was checked)";
+    throw new IOException("BMP #"+i+" ("+bmpFiles[i]+")'s data "+what);
+}
+
+private static void add_animOffsets() throws IOException
 {
     for(int a=0; a < nf.anims; a++)
     {
-        bb.putInt(nf.animOffsets[a]);
+        putInt(nf.animOffsets[a]);
         out.println("AnimOffset["+a+"]: "+nf.animOffsets[a]);
     }
 }
 
-private static void add_ANIM() throws UnsupportedEncodingException
+private static void add_ANIM() throws IOException
 {
     for(int a=0; a < nf.anims; a++)
     {
-        pos = bb.position();
-        bb.put(nf.title[a].getBytes(EUC_KR));
-        bb.position(pos+32);//ensure title uses only 32 bytes
-        bb.putInt(nf.numFrames[a]);
+        //ensure title uses only 32 bytes
+        putFixed(nf.title[a].getBytes(EUC_KR),32);
+        putInt(nf.numFrames[a]);
         // Add Frame Offsets
-        for(int f=0; f < nf.numFrames[a]; f++)
-        {
-            bb.putInt(nf.frameOffsets[a][f]);
-        }
+        putInts(nf.frameOffsets,nf.frameStart[a],nf.numFrames[a]);
         // Add Frame Data
         for(int f=0; f < nf.numFrames[a]; f++)
         {
-            add_FrameDataTop(a,f);
-            add_PlaneData(a,f);
-            add_FrameDataBottom(a,f);
+            int g = nf.frame(a,f);
+            add_FrameDataTop(g);
+            add_PlaneData(g);
+            add_FrameDataBottom(g);
         }
     }
 }
 
-private static void add_FrameDataTop(int a, int f)
+private static void add_FrameDataTop(int g) throws IOException
 {
-    bb.putInt(nf.frameDataTop[a][f][0]);
-    bb.putInt(nf.frameDataTop[a][f][1]);
+    putInts(nf.frameDataTop,2*g,2);
 }
 
-private static void add_PlaneData(int a, int f)
+private static void add_PlaneData(int g) throws IOException
 {
-    for(int p=0; p < nf.frameDataTop[a][f][1]; p++)
-    {
-        bb.putInt(nf.planeData[a][f][p][0]);
-        bb.putInt(nf.planeData[a][f][p][1]);
-        bb.putInt(nf.planeData[a][f][p][2]);
-        bb.putInt(nf.planeData[a][f][p][3]);
-        bb.putInt(nf.planeData[a][f][p][4]);
-        bb.putInt(nf.planeData[a][f][p][5]);
-        bb.putInt(nf.planeData[a][f][p][6]);
-    }
+    putInts(nf.planeData,7*nf.planeStart[g],7*nf.numPlanes(g));
 }
 
-private static void add_FrameDataBottom(int a, int f)
+private static void add_FrameDataBottom(int g) throws IOException
 {
     if(nf.notV300)
     {
-        bb.putInt(nf.numCoordSets[a][f]);
-        for(int i=0; i < nf.numCoordSets[a][f]; i++)
-        {
-            bb.putInt(nf.coordSets[a][f][i][0]);
-            bb.putInt(nf.coordSets[a][f][i][1]);
-        }
+        putInt(nf.numCoordSets(g));
+        putInts(nf.coordSets,2*nf.coordStart[g],2*nf.numCoordSets(g));
     }
     for(int i=0; i < nf.cdBlockSize; i++)
     {
-        bb.put(xCD);
+        putByte(xCD);
     }
     if(nf.hasEB)
     {
-        bb.put(nf.entryBlocks[a][f][0]);
-        bb.put(nf.entryBlocks[a][f][1]);
-        bb.put(nf.entryBlocks[a][f][2]);
-        bb.put(nf.entryBlocks[a][f][3]);
-        bb.put(nf.entryBlocks[a][f][4]);
-        bb.put(nf.entryBlocks[a][f][5]);
+        put(nf.entryBlocks[g][0]);
+        put(nf.entryBlocks[g][1]);
+        put(nf.entryBlocks[g][2]);
+        put(nf.entryBlocks[g][3]);
+        put(nf.entryBlocks[g][4]);
+        put(nf.entryBlocks[g][5]);
     }
-    bb.put(nf.unknownData1[a][f][0]);
-    bb.put(nf.unknownData1[a][f][1]);
-    pos = bb.position();
-    bb.put(nf.soundEffect[a][f].getBytes(UTF8));
-    bb.position(pos+18);//ensure soundEffect uses 18 bytes
-    bb.put(nf.unknownData2[a][f]);
+    put(nf.unknownData1[g][0]);
+    put(nf.unknownData1[g][1]);
+    //ensure soundEffect uses 18 bytes
+    putFixed(nf.soundEffect[g].getBytes(UTF8),18);
+    put(nf.unknownData2[g]);
     if(nf.maybeMCV)
     {
-        bb.putInt(nf.hasMCValues[a][f]);
-        if(nf.hasMCValues[a][f]==1)
+        putInt(nf.hasMCValues[g]);
+        if(nf.hasMCValues[g]==1)
         {
-            bb.putInt(nf.mcValues[a][f][0]);
-            bb.putInt(nf.mcValues[a][f][1]);
-            bb.putInt(nf.mcValues[a][f][2]);
-            bb.putInt(nf.mcValues[a][f][3]);
-            bb.putInt(nf.mcValues[a][f][4]);
-            bb.putInt(nf.mcValues[a][f][5]);
-            bb.putInt(nf.mcValues[a][f][6]);
-            bb.put(b64Dec(nf.mcParam7[a][f]));
-            bb.put(nf.mcParam8[a][f]);
+            putInts(nf.mcValues,7*g,7);
+            put(b64Dec(nf.mcParam7[g]));
+            put(nf.mcParam8[g]);
         }
     }
 }
 
+/*########################################################################*/
+/*############################### OUTPUT #################################*/
+
+private static void putInt(int i) throws IOException
+{
+    if(bb.remaining() < 4) flush();
+    bb.putInt(i);
+}
+
+private static void putByte(byte b) throws IOException
+{
+    if(!bb.hasRemaining()) flush();
+    bb.put(b);
+}
+
+// Bulk put of len ints from ia, starting at off, a buffer full at a time
+private static void putInts(int[] ia, int off, int len) throws IOException
+{
+    while(len > 0)
+    {
+        int n = Math.min(len,bb.remaining()/4);
+        if(n==0)
+        {
+            flush();
+            continue;
+        }
+        bb.asIntBuffer().put(ia,off,n);
+        bb.position(bb.position()+4*n);
+        off += n;
+        len -= n;
+    }
+}
+
+// Small arrays go in the buffer, anything bigger than it goes straight out
+private static void put(byte[] ba) throws IOException
+{
+    if(ba.length > bb.remaining()) flush();
+    if(ba.length > bb.remaining()) drain(ByteBuffer.wrap(ba));
+    else bb.put(ba);
+}
+
+// The first n bytes of ba, padded w/ 0s if it is shorter
+private static void putFixed(byte[] ba, int n) throws IOException
+{
+    put(ba.length > n ? Arrays.copyOf(ba,n) : ba);
+    for(int i=ba.length; i < n; i++)
+    {
+        putByte((byte)0);
+    }
+}
+
+private static void flush() throws IOException
+{
+    bb.flip();
+    // a slice, b/c the Deflater holds on to its input after it's used up
+    drain(bb.slice());
+    bb.clear();
+}
+
+// Writes out all of src, through the Deflater if zlib compressing
+private static void drain(ByteBuffer src) throws IOException
+{
+    if(zlib==null)
+    {
+        while(src.hasRemaining()) fc.write(src);
+        return;
+    }
+    long start = System.nanoTime();
+    zlib.setInput(src);
+    while(!zlib.needsInput()) deflate();
+    zNanos += System.nanoTime()-start;
+}
+
+// The 0xB0A0 header, the compressed size is filled in by endZlib()
+private static void startZlib() throws IOException
+{
+    zlib = Zlib.deflater(Options.zLevel,Options.zStrategy);
+    zNanos = 0;
+    zbb = ByteBuffer.allocateDirect(Zlib.chunk);
+    ByteBuffer hdr = mkLEBB(new byte[Zlib.hdrSize]);
+    hdr.putInt(Zlib.sig);// xB0A00000
+    hdr.putInt(nf.fsize);// Actual Size
+    hdr.putInt(0);// Compressed Size
+    hdr.flip();
+    while(hdr.hasRemaining()) fc.write(hdr);
+}
+
+private static void endZlib() throws IOException
+{
+    long start = System.nanoTime();
+    zlib.finish();
+    while(!zlib.finished()) deflate();
+    zNanos += System.nanoTime()-start;
+    long zlibSize = zlib.getBytesWritten(), size = zlibSize+Zlib.hdrSize;
+    out.println("Compressed Size: "+size);
+    out.printf("Ratio: %.2f%% (level %d, strategy %d)%n",100.0*size/nf.fsize,
+               Options.zLevel,Options.zStrategy);
+    // only the deflating (& writing its output) is timed, not the BMP reading
+    Zlib.printRate(out,"Deflated",nf.fsize,size,System.nanoTime()-zNanos);
+    ByteBuffer zSize = mkLEBB(new byte[4]);
+    zSize.putInt(0,(int)zlibSize);
+    fc.write(zSize,8);
+}
+
+private static void deflate() throws IOException
+{
+    zbb.clear();
+    zlib.deflate(zbb);
+    zbb.flip();
+    while(zbb.hasRemaining()) fc.write(zbb);
+}
+
 // Shorten the byte array from base64 encoded string command
 private static byte[] b64Dec(String s)
 {
@@ -16,6 +16,10 @@ GNU General Public License for more details.
 import java.io.*;
 import java.nio.*;
 import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import java.util.zip.*;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -32,126 +36,227 @@ Development Priority: HIGHEST
 public class Extract
 {
 // class variables
-private static NORI nf;
-private static ByteBuffer bb;
-private static int pos=0,w=0,h=0,bmpCount=0;
-private static byte x00=(byte)0,xFF=(byte)255,x1F=(byte)31,x7C=(byte)124;
-private static byte[] rawBytes,pixels,bmp;
+private NORI nf;
+private ByteBuffer bb;
+private PrintStream out;
+private int[][] bmpIndex;
+private AtomicInteger failed = new AtomicInteger();// bitmaps that were skipped
+private Archive ar;
+private String arDir = "";
 
 // constructor for Extract class
-public Extract(byte[] ba, File nFile)
+public Extract(ByteBuffer nFileBB, File nFile, PrintStream ps)
 {
+    this(nFileBB,nFile,ps,null,null);
+}
+
+// Same, but the images go into batchAr (shared by the whole batch), if given.
+// batchDir is this file's folder in it, each file's must be different.
+public Extract(ByteBuffer nFileBB, File nFile, PrintStream ps,
+               Archive batchAr, String batchDir)
+{
+    out = ps;
     nf = new NORI();
     nf.setNORI(nFile);
-    bb = mkLEBB(ba);
+    bb = nFileBB;
+    boolean ownAr = false;
     try
     {
         // Analyze and assign NORI vars
-        Analyzer a = new Analyzer(bb,nf,true);
+        Analyzer a = new Analyzer(bb,nf,true,out);
 
-        // Make the directory where we will extract the bmp to
-        Files.createDirectories((new File(nf.exdir)).toPath());
+        if(batchAr!=null)
+        {
+            // In a shared archive, each NORI file gets its own folder
+            ar = batchAr;
+            arDir = batchDir;
+        }
+        else if(Options.arType!=null)
+        {
+            // One archive next to the NORI file, instead of the directory
+            String arPath = nf.dir+nf.dname+Archive.ext(Options.arType);
+            ar = new Archive(arPath,Options.arType,Options.arLevel);
+            ownAr = true;
+        }
+        else
+        {
+            // Make the directory where we will extract the bmp to
+            Files.createDirectories((new File(nf.exdir)).toPath());
+        }
 
-        // Initialize Java Bitmap Library
-        JBL bl = new JBL();
-        bl.setFileVars(nf.exdir,nf.name);
-        bl.set16BitFmtIn("RGB555");
-        bl.setNumLength(nf.nLen);
-        bl.setPalette(nf.palette);
+        // Find every bitmap first, so they can be extracted in any order
+        indexBitmaps(nFile);
 
         // Extract the images
         out.println("Extracting Bitmaps...");
-        boolean isSub=false;
-        for(int i=0; i < nf.bmpStructs; i++)
+        IntStream bmps = IntStream.range(0,bmpIndex.length);
+        if(Options.parBmp) bmps = bmps.parallel();
+        bmps.forEach(this::extractBitmap);
+        if(ownAr)
         {
-            // get/set bmp count (if larger than 1, subset exists)
-            bmpCount = bb.getInt();
-            isSub = (bmpCount >1);
-            for(int x=1,dataLength; x <= bmpCount; x++)
-            {
-                // get/set the standard info about the bmp
-                dataLength = bb.getInt();
-                w = bb.getInt();
-                h = bb.getInt();
-                bb.position(bb.position()+12);//skip bParam4,bmp_x,bmp_y
-                bl.setBitmapVars(w,h,nf.bpp);
-                // Get image data & turn data into proper scanlines
-                rawBytes = bl.getImgBytes(bb,dataLength);
-                pixels   = bl.toStdRGB(decompressor(rawBytes));
-                // Ntree* uses top-down bmp scanlines in the NORI format
-                bmp = bl.setBMP(bl.reverseRows(pixels),false);
-                // Write the new BMP into existence
-                if(isSub)
-                    bl.makeBMP(bmp,i,String.format("_%02d",x));
-                else
-                    bl.makeBMP(bmp,i,"");
-            }
+            ar.close();
+            ownAr = false;
+            out.println("Archived "+ar.size()+" images in "+ar.getPath());
         }
+        if(failed.get() > 0)
+            out.println(failed+" of "+bmpIndex.length+" bitmaps failed!");
         out.println("Extraction Complete.\n");
     }
     catch(Exception ex)
     {
         out.println("Error in (EM):");
-        ex.printStackTrace(System.out);
+        ex.printStackTrace(out);
+    }
+    finally
+    {
+        // Don't leave the archive open (& unfinished) after an error
+        try
+        {
+            if(ownAr) ar.close();
+        }
+        catch(Exception ex)
+        {
+            ex.printStackTrace(out);
+        }
     }
 }
 
-// Minor interface for decompress() to make code cleaner
-private static byte[] decompressor(byte[] bmpData)
+// Walk the bitmap structures & record where each bitmap's data is. Each entry
+// is {data position, data size, w, h, bmpStruct #, sub #}, sub # is 0 if the
+// bmpStruct only has one bitmap. With -idx, the index cache has all of this.
+private void indexBitmaps(File nFile)
 {
-    if(nf.compressed==1)
-        return decompress(bmpData);
-    else
-        return bmpData;
+    NORIIndex cache = null;
+    if(Options.idxDir!=null) cache = NORIIndex.get(nFile,bb,out);
+    if(cache!=null)
+    {
+        bmpIndex = cache.bitmaps;
+        return;
+    }
+    List<int[]> idx = new ArrayList<int[]>();
+    for(int i=0; i < nf.bmpStructs; i++)
+    {
+        // get/set bmp count (if larger than 1, subset exists)
+        int bmpCount = bb.getInt();
+        boolean isSub = (bmpCount > 1);
+        for(int x=1,dataLength,w,h,dataSize; x <= bmpCount; x++)
+        {
+            // get/set the standard info about the bmp
+            dataLength = bb.getInt();
+            w = bb.getInt();
+            h = bb.getInt();
+            bb.position(bb.position()+12);//skip bParam4,bmp_x,bmp_y
+            dataSize = nf.dataSize(dataLength,w,h);
+            idx.add(new int[]{bb.position(),dataSize,w,h,i,(isSub ? x : 0)});
+            bb.position(bb.position()+dataSize);
+        }
+    }
+    bmpIndex = idx.toArray(new int[0][]);
 }
 
-// Custom Run-length Encoding Decompression function.
-// Each scanline is defined by a encodedSize, then a cycle of background and
-// foreground pixel data that is repeated until the encodedSize is met.
-private static byte[] decompress(byte[] input)
+// Decode, convert and write a single bitmap from the index. Only touches its
+// own JBL & ByteBuffer view, so any number of these can run at the same time.
+// A damaged bitmap is reported & skipped, the rest still get extracted.
+private void extractBitmap(int n)
 {
-    byte[] output = new byte[w*h*nf.Bpp], bg1= {x1F,x7C}, bg2= {xFF,x00,xFF};
-    // Create bytebuffers for the input and output arrays
-    ByteBuffer bi = mkLEBB(input), bo = mkLEBB(output);
+    try
+    {
+        writeBitmap(n);
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (extractBitmap): bitmap #"+n);
+        ex.printStackTrace(out);
+        failed.incrementAndGet();
+    }
+}
 
-    for(int i=0,encodedSize,bg,fg,fgxBpp; i < h; i++)
+private void writeBitmap(int n) throws Exception
+{
+    int[] e = bmpIndex[n];
+    int w=e[2], h=e[3];
+    String sub = (e[5]!=0) ? String.format("_%02d",e[5]) : "";
+    // Initialize Java Bitmap Library
+    JBL bl = new JBL();
+    bl.setFileVars(nf.exdir,nf.name);
+    bl.set16BitFmtIn("RGB555");
+    // -n: 8-bit stays indexed (w/ palette), 16-bit stays RGB555 (bitfields)
+    if(Options.nativeBmp && nf.bpp==8) bl.setBitFmtOut("RGB8");
+    if(Options.nativeBmp && nf.bpp==16) bl.setBitFmtOut("RGB555");
+    bl.setNumLength(nf.nLen);
+    bl.setPalette(nf.palette);
+    bl.setBitmapVars(w,h,nf.bpp);
+    // Get image data & turn data into proper scanlines
+    ByteBuffer view = bb.duplicate();
+    view.position(e[0]);
+    byte[] rawBytes = bl.getImgBytes(view,e[1]);
+    if(nf.compressed==1 && !Options.png && bl.isPassThrough())
     {
-        // set the encodedSize, then subtract 2, since it includes itself
-        encodedSize = (int)bi.getShort()-2;
-        while(encodedSize > 0)
-        {
-            // Get the encoded scanline internal parameters
-            bg =(int)bi.getShort();
-            fg =(int)bi.getShort();
-            fgxBpp = fg*nf.Bpp;
-            // Get foreground pixel data for the scanline
-            byte[] fgData = new byte[fgxBpp];
-            bi.get(fgData,0,fgxBpp);
-            // Set background pixels for scanline
-            for(int x=0; x < bg; x++)
-            {
-                if(nf.Bpp==2)
-                    bo.put(bg1,0,2);
-                else if(nf.Bpp==3)
-                    bo.put(bg2,0,3);
-                else
-                    bo.put(x00);
-            }
-            // Set foreground pixels for scanline
-            for(int y=0; y < fgxBpp; y++)
-            {
-                bo.put(fgData[y]);
-            }
-            // Subtract the bytes for the fg & bg vars, and fgData
-            encodedSize -= 4+fgxBpp;
-        }
+        // no conversion needed, so decode right into the BMP's rows
+        byte[] bmp = bl.newBMP();
+        RLE.decode(rawBytes,0,rawBytes.length,w,h,nf.Bpp,bmp,bl.rowStart(0),
+                   -bl.scanlineSize());
+        save(bl,bmp,e[4],sub,".bmp");
+        return;
     }
-    return output;
+    byte[] pixels = decompressor(rawBytes,w,h);
+    if(Options.png)
+    {
+        save(bl,toPNG(bl,pixels,w,h),e[4],sub,".png");
+        return;
+    }
+    // Ntree* uses top-down scanlines in the NORI format, toBMP flips them
+    byte[] bmp = bl.toBMP(pixels);
+    // Write the new BMP into existence
+    save(bl,bmp,e[4],sub,".bmp");
+}
+
+// Writes the image to its own file, or adds it to the archive if there is one
+private void save(JBL bl, byte[] img, int num, String sub, String ext)
+{
+    if(ar==null)
+    {
+        bl.makeImg(img,num,sub,ext,out);
+        return;
+    }
+    try
+    {
+        ar.add(arDir+bl.imgName(num,sub,ext),img);
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (save):");
+        ex.printStackTrace(out);
+    }
+}
+
+// PNG version of the output. 8-bit stays indexed, the rest goes 24-bit. A
+// failure is thrown to extractBitmap, so no empty image gets saved.
+private byte[] toPNG(JBL bl, byte[] pixels, int w, int h) throws IOException
+{
+    PNG png = new PNG(Options.pngLevel,Options.pngFilter);
+    if(nf.bpp==8)
+        return png.encode(pixels,w,h,1,bl.palette);
+    else
+        return png.encode(bl.toRGB24(pixels),w,h,3,null);
 }
 
-// Shorthand function to wrap a byte array in a little-endian bytebuffer
-private static ByteBuffer mkLEBB(byte[] ba)
+// Minor interface for decompress() to make code cleaner
+private byte[] decompressor(byte[] bmpData, int w, int h)
+throws DataFormatException
 {
-    return ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
+    if(nf.compressed==1)
+        return decompress(bmpData,w,h);
+    else
+        return bmpData;
+}
+
+// Run-length Encoding Decompression, see the RLE class for the format
+private byte[] decompress(byte[] input, int w, int h)
+throws DataFormatException
+{
+    byte[] output = new byte[w*h*nf.Bpp];
+    RLE.decode(input,0,input.length,w,h,nf.Bpp,output,0,w*nf.Bpp);
+    return output;
 }
 }
@@ -18,13 +18,27 @@ import java.nio.*;
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
-import javax.xml.parsers.*;
-import org.w3c.dom.*;
+import javax.xml.stream.*;
 import static java.lang.System.out;
 /**
 Class Description:
+The GetCfgData class loads a NORI config file (see Analyze) into a NORI, so
+create mode can build the NORI file from it.
 
 Dev Notes:
+A config is loaded into a NORI model first (load()), which has everything the
+config has, just like Analyzer fills it from a NORI file. That model is what
+BinCfg saves & loads too. Create mode then only takes what it needs from it &
+works out the sizes & offsets itself (the config's ones are ignored).
+
+The XML config is read in a single pass w/ an XMLStreamReader, no DOM is made.
+Each tag has a column: header values are kept as they go by, the
+rest are added (in document order) to growable int columns or String lists.
+Tags that make up 1 record (a plane's 7 values, a coordinate set's x & y) share
+an interleaved column, which already is the layout of the NORI arrays.
+
+Since it is still "the Nth of a tag goes with the Nth of the others" like the
+old getElementsByTagName() lookups were, the same configs load the same way.
 
 Development Priority: MEDIUM
 */
@@ -32,13 +46,48 @@ public class GetCfgData
 {
 // class variables
 private static NORI nf;
-private static Document cfg;
 static Charset UTF8=StandardCharsets.UTF_8,EUC_KR=Charset.forName("EUC-KR");
-private static int pos,max,maxNoF,NoF,maxNoP,NoP;
+private static int NoF,NoP;
 private static int animOffDiff,frameOffDiff,frameOffTotal;
-private static int[] ftDex,pdex,fbDex,coordSets,coordX,coordY,hasMCV;
-private static int[][] mcVals;
-private static String[] eBlocks,uData1,sfx,uData2,mcParam7,mcParam8;
+// The config's columns, by xml_tag #
+private static HashMap<String,Integer> tagNum;
+private static int[] hdr, colField;
+private static int bpos, apos;// from the BMP & ANIM offset attributes
+private static String cfgName;
+private static boolean[] hdrSet;
+private static IntCols[] intCol;
+private static ArrayList<ArrayList<String>> strCol;
+private static IntCols bmpOffs,bmpCnt,specs,animOffs,frameCnt,frameOffs,fdTop,
+                       planes,coordCnt,coords,hasMCVs,mcVCols;
+
+// Growable int columns, stride ints per record (1 from each field)
+private static class IntCols
+{
+    int[] data, n;
+    int stride;
+
+    IntCols(int stride)
+    {
+        this.stride = stride;
+        data = new int[stride*64];
+        n = new int[stride];
+    }
+
+    void add(int field, int val)
+    {
+        int i = stride*n[field]+field;
+        if(i >= data.length) data = Arrays.copyOf(data,2*data.length);
+        data[i] = val;
+        n[field]++;
+    }
+
+    int[] toArray()
+    {
+        int records = 0;
+        for(int x : n) records = Math.max(records,x);
+        return Arrays.copyOf(data,stride*records);
+    }
+}
 
 // constructor for GetCfgData class
 public GetCfgData(File config, NORI NF)
@@ -48,180 +97,8 @@ public GetCfgData(File config, NORI NF)
     {
         // Set NORI file directory
         nf.setDir(config);
-        // Make document object from config file
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbf.newDocumentBuilder();
-        // Set xml config document to global var: cfg
-        cfg = dBuilder.parse(config);
-        cfg.getDocumentElement().normalize();
-        // Set NORI element, get & set NORI file name
-        Element root = cfg.getDocumentElement();
-        nf.name = root.getAttribute("name");
-
-        // Set NORI Header and GAWI Header Elements
-        Element noriHdr = getElementByTagName("NORI_HDR");
-        Element gawiHdr = getElementByTagName("GAWI_HDR");
-        // Get & Set NORI Header Data
-        nf.noriVer = getIntVal(noriHdr,nf.xml_tag[1]);
-        nf.nParam1 = getIntVal(noriHdr,nf.xml_tag[2]);
-        nf.nParam2 = getIntVal(noriHdr,nf.xml_tag[3]);
-        nf.nParam3 = getIntVal(noriHdr,nf.xml_tag[4]);
-        nf.nParam4 = getIntVal(noriHdr,nf.xml_tag[5]);
-        nf.nParam5 = getIntVal(noriHdr,nf.xml_tag[6]);
-        nf.anims   = getIntVal(noriHdr,nf.xml_tag[7]);
-        // Set NORI version-specific variables
-        nf.setVerSpecific();
-        // Get & Set GAWI Header Data
-        nf.bpp        = getIntVal(gawiHdr,nf.xml_tag[12]);
-        nf.hasPalette = getIntVal(gawiHdr,nf.xml_tag[14]);
-        nf.gParam4    = getIntVal(gawiHdr,nf.xml_tag[15]);
-        nf.gParam5    = getIntVal(gawiHdr,nf.xml_tag[16]);
-        nf.gParam6    = getIntVal(gawiHdr,nf.xml_tag[17]);
-        nf.gParam7    = getIntVal(gawiHdr,nf.xml_tag[18]);
-        nf.bmpStructs = getIntVal(gawiHdr,nf.xml_tag[19]);
-        // Get & Set Palette Header Data, if palette exists
-        if(nf.bpp==8)
-        {
-            Element pal = getElementByTagName("PAL");
-            nf.pParam1 = getIntVal(pal,nf.xml_tag[23]);
-            nf.pParam2 = getIntVal(pal,nf.xml_tag[24]);
-            nf.pParam3 = getIntVal(pal,nf.xml_tag[25]);
-            nf.pParam4 = getIntVal(pal,nf.xml_tag[26]);
-            nf.psize   = getIntVal(pal,nf.xml_tag[28]);
-            if(nf.psize==808)
-            {
-                nf.mainS = getIntVal(pal,nf.xml_tag[29]);
-                nf.mainE = getIntVal(pal,nf.xml_tag[30]);
-            }
-        }
-        // Prep BMP Offsets & BMP Specs
-        nf.bmpOffsets = new int[nf.bmpStructs];
-        nf.bmpOffsets = getIntArrByTag(nf.xml_tag[31]);
-        nf.bmpCount   = new int[nf.bmpStructs];
-        nf.bmpCount   = getIntArrByTag(nf.xml_tag[32]);
-        nf.totalBMP   = getIntArrSum(nf.bmpCount);
-        nf.bmpSpecs   = new int[nf.totalBMP][6];
-        // Get & Set BMP Specs data arrays
-        int[] width   = getIntArrByTag(nf.xml_tag[34]);
-        int[] height  = getIntArrByTag(nf.xml_tag[35]);
-        int[] bParam4 = getIntArrByTag(nf.xml_tag[36]);
-        int[] bmpX    = getIntArrByTag(nf.xml_tag[37]);
-        int[] bmpY    = getIntArrByTag(nf.xml_tag[38]);
-        // Set BMP Specs
-        for(int bmp=0; bmp < nf.totalBMP; bmp++)
-        {
-            nf.bmpSpecs[bmp][0] = width[bmp]*height[bmp]*(nf.bpp/8);
-            nf.bmpSpecs[bmp][1] = width[bmp];
-            nf.bmpSpecs[bmp][2] = height[bmp];
-            nf.bmpSpecs[bmp][3] = bParam4[bmp];
-            nf.bmpSpecs[bmp][4] = bmpX[bmp];
-            nf.bmpSpecs[bmp][5] = bmpY[bmp];
-        }
-        // Prep Animation Offsets
-        nf.animOffsets = new int[nf.anims];
-        // Get & Set Animation Data
-        nf.title  = getStrArrByTag(nf.xml_tag[40]);
-        nf.numFrames = getIntArrByTag(nf.xml_tag[41]);
-        nf.totalFrames = getIntArrSum(nf.numFrames);
-        // Prep FrameDataTop arrays
-        maxNoF = getMax(nf.numFrames);
-        nf.frameOffsets = new int[nf.anims][maxNoF];
-        nf.frameDataTop = new int[nf.anims][maxNoF][2];
-        ftDex = new int[2];
-        // Get & Set FrameDataTop Data Arrays
-        int[] durations = getIntArrByTag(nf.xml_tag[43]);
-        int[] numPlanes = getIntArrByTag(nf.xml_tag[44]);
-        nf.totalPlanes = getIntArrSum(numPlanes);
-        // Prep PlaneData array
-        maxNoP = getMax(numPlanes);
-        nf.planeData = new int[nf.anims][maxNoF][maxNoP][7];
-        pdex = new int[7];
-        // Get & Set PlaneData Data Arrays
-        int[] bmpID      = getIntArrByTag(nf.xml_tag[45]);
-        int[] planeX     = getIntArrByTag(nf.xml_tag[46]);
-        int[] planeY     = getIntArrByTag(nf.xml_tag[47]);
-        int[] opacity    = getIntArrByTag(nf.xml_tag[48]);
-        int[] flip       = getIntArrByTag(nf.xml_tag[49]);
-        int[] blend_mode = getIntArrByTag(nf.xml_tag[50]);
-        int[] flag_param = getIntArrByTag(nf.xml_tag[51]);
-        // Prep FrameDataBottom + Get & Set FDB Data arrays
-        fbDex = new int[11];
-        if(nf.notV300)
-        {
-            // Get & Set Coordinate Data Arrays
-            coordSets = getIntArrByTag(nf.xml_tag[52]);
-            coordX    = getIntArrByTag(nf.xml_tag[53]);
-            coordY    = getIntArrByTag(nf.xml_tag[54]);
-            nf.totalCoordSetsBytes = (coordSets.length+(coordX.length*2))*4;
-            // Prep Coordinate arrays
-            int maxNoCS = getMax(coordSets);
-            nf.numCoordSets = new int[nf.anims][maxNoF];
-            nf.coordSets    = new int[nf.anims][maxNoF][maxNoCS][2];
-        }
-        if(nf.hasEB)
-        {
-            nf.entryBlocks = new byte[nf.anims][maxNoF][6][28];
-            eBlocks = getStrArrByTag(nf.xml_tag[56]);
-        }
-        nf.unknownData1 = new byte[nf.anims][maxNoF][2][22];
-        nf.soundEffect  = new String[nf.anims][maxNoF];
-        nf.unknownData2 = new byte[nf.anims][maxNoF][18];
-        uData1 = getStrArrByTag(nf.xml_tag[57]);
-        sfx    = getStrArrByTag(nf.xml_tag[58]);
-        uData2 = getStrArrByTag(nf.xml_tag[59]);
-        if(nf.maybeMCV)
-        {
-            nf.hasMCValues = new int[nf.anims][maxNoF];
-            nf.mcValues    = new int[nf.anims][maxNoF][7];
-            nf.mcParam7    = new String[nf.anims][maxNoF];
-            nf.mcParam8    = new byte[nf.anims][maxNoF][20];
-            hasMCV = getIntArrByTag(nf.xml_tag[60]);
-            mcVals = new int[7][nf.totalFrames];
-            mcVals[0] = getIntArrByTag(nf.xml_tag[61]);
-            mcVals[1] = getIntArrByTag(nf.xml_tag[62]);
-            mcVals[2] = getIntArrByTag(nf.xml_tag[63]);
-            mcVals[3] = getIntArrByTag(nf.xml_tag[64]);
-            mcVals[4] = getIntArrByTag(nf.xml_tag[65]);
-            mcVals[5] = getIntArrByTag(nf.xml_tag[66]);
-            mcVals[6] = getIntArrByTag(nf.xml_tag[67]);
-            mcParam7  = getStrArrByTag(nf.xml_tag[68]);
-            mcParam8  = getStrArrByTag(nf.xml_tag[69]);
-        }
-        // Set Frame Data & animOffsets & frameOffsets
-        for(int a=0,animOffTotal=0; a < nf.anims; a++)
-        {
-            nf.animOffsets[a] = animOffTotal;
-            animOffDiff=0;
-            frameOffTotal=0;
-            NoF = nf.numFrames[a];
-            animOffDiff = 36+(4*NoF);
-            for(int f=0; f < NoF; f++)
-            {
-                nf.frameOffsets[a][f] = frameOffTotal;
-                frameOffDiff=0;
-                // Set FrameDataTop values
-                nf.frameDataTop[a][f][0] = durations[ftDex[0]++];
-                nf.frameDataTop[a][f][1] = numPlanes[ftDex[1]++];
-                NoP = nf.frameDataTop[a][f][1];
-                frameOffDiff = 8+(28*NoP);
-                // Set PlaneData array
-                for(int p=0; p < NoP; p++)
-                {
-                    nf.planeData[a][f][p][0] = bmpID[pdex[0]++];
-                    nf.planeData[a][f][p][1] = planeX[pdex[1]++];
-                    nf.planeData[a][f][p][2] = planeY[pdex[2]++];
-                    nf.planeData[a][f][p][3] = opacity[pdex[3]++];
-                    nf.planeData[a][f][p][4] = flip[pdex[4]++];
-                    nf.planeData[a][f][p][5] = blend_mode[pdex[5]++];
-                    nf.planeData[a][f][p][6] = flag_param[pdex[6]++];
-                }
-                // Set FrameDataBottom values
-                fillFrameDataBottom(a,f);
-                frameOffTotal += frameOffDiff;
-            }
-            animOffDiff += frameOffTotal;
-            animOffTotal += animOffDiff;
-        }
+        // Load the XML or binary config, then take what create mode needs
+        setCreateData(load(config));
     }catch(Exception ex)
     {
         out.println("Error in (getConfigData):");
@@ -229,69 +106,250 @@ public GetCfgData(File config, NORI NF)
     }
 }
 
-private static void fillFrameDataBottom(int a, int f)
+// The config file (XML or binary) as a NORI model
+static NORI load(File config) throws Exception
 {
+    if(BinCfg.isBinCfg(config)) return BinCfg.read(config);
+    // Read the whole config file into the columns
+    prepCols();
+    readCfg(config);
+    return toModel(config);
+}
+
+// Sets create mode's NORI from the model & works out the sizes & offsets
+private static void setCreateData(NORI m)
+{
+    nf.name = m.name;
+    // Get & Set NORI Header Data
+    nf.noriVer = m.noriVer;
+    nf.nParam1 = m.nParam1;
+    nf.nParam2 = m.nParam2;
+    nf.nParam3 = m.nParam3;
+    nf.nParam4 = m.nParam4;
+    nf.nParam5 = m.nParam5;
+    nf.anims   = m.anims;
+    // Set NORI version-specific variables
+    nf.setVerSpecific();
+    // Get & Set GAWI Header Data
+    nf.bpp        = m.bpp;
+    nf.hasPalette = m.hasPalette;
+    nf.gParam4    = m.gParam4;
+    nf.gParam5    = m.gParam5;
+    nf.gParam6    = m.gParam6;
+    nf.gParam7    = m.gParam7;
+    nf.bmpStructs = m.bmpStructs;
+    // Get & Set Palette Header Data, if palette exists
+    if(nf.bpp==8)
+    {
+        nf.pParam1 = m.pParam1;
+        nf.pParam2 = m.pParam2;
+        nf.pParam3 = m.pParam3;
+        nf.pParam4 = m.pParam4;
+        nf.psize   = m.psize;
+        if(nf.psize==808)
+        {
+            nf.mainS = m.mainS;
+            nf.mainE = m.mainE;
+        }
+        nf.palBytes = m.palBytes;// only binary configs have it
+    }
+    // Set BMP Offsets & BMP Specs, the dataLength is w*h*Bpp
+    nf.bmpOffsets = m.bmpOffsets;
+    nf.bmpCount   = m.bmpCount;
+    nf.totalBMP   = m.totalBMP;
+    nf.bmpSpecs   = new int[nf.totalBMP][];
+    for(int bmp=0; bmp < nf.totalBMP; bmp++)
+    {
+        nf.bmpSpecs[bmp] = m.bmpSpecs[bmp].clone();
+        nf.bmpSpecs[bmp][0] = m.bmpSpecs[bmp][1]*m.bmpSpecs[bmp][2]*(nf.bpp/8);
+    }
+    // Prep Animation Offsets
+    nf.animOffsets = new int[nf.anims];
+    // Get & Set Animation Data
+    nf.title        = m.title;
+    nf.numFrames    = m.numFrames;
+    nf.totalFrames  = m.totalFrames;
+    nf.frameStart   = m.frameStart;
+    nf.frameOffsets = new int[nf.totalFrames];
+    nf.frameDataTop = m.frameDataTop;
+    nf.planeStart   = m.planeStart;
+    nf.totalPlanes  = m.totalPlanes;
+    nf.planeData    = m.planeData;
     if(nf.notV300)
     {
-        nf.numCoordSets[a][f] = coordSets[fbDex[0]++];
-        for(int i=0; i < nf.numCoordSets[a][f]; i++)
+        nf.coordStart = m.coordStart;
+        nf.coordSets  = m.coordSets;
+        int frames = nf.coordStart.length-1;
+        nf.totalCoordSetsBytes = (frames+nf.coordSets.length)*4;
+    }
+    nf.entryBlocks  = m.entryBlocks;
+    nf.unknownData1 = m.unknownData1;
+    nf.soundEffect  = m.soundEffect;
+    nf.unknownData2 = m.unknownData2;
+    nf.hasMCValues  = m.hasMCValues;
+    nf.mcValues     = m.mcValues;
+    nf.mcParam7     = m.mcParam7;
+    nf.mcParam8     = m.mcParam8;
+    // Set animOffsets & frameOffsets
+    for(int a=0,animOffTotal=0; a < nf.anims; a++)
+    {
+        nf.animOffsets[a] = animOffTotal;
+        animOffDiff=0;
+        frameOffTotal=0;
+        NoF = nf.numFrames[a];
+        animOffDiff = 36+(4*NoF);
+        for(int f=0; f < NoF; f++)
         {
-            nf.coordSets[a][f][i][0] = coordX[fbDex[1]++];
-            nf.coordSets[a][f][i][1] = coordY[fbDex[2]++];
+            int g = nf.frame(a,f);
+            nf.frameOffsets[g] = frameOffTotal;
+            // FrameDataTop & PlaneData
+            NoP = nf.numPlanes(g);
+            frameOffDiff = 8+(28*NoP);
+            // FrameDataBottom
+            addFrameDataBottom(g);
+            frameOffTotal += frameOffDiff;
         }
-        frameOffDiff += 4+(nf.numCoordSets[a][f]*8);
+        animOffDiff += frameOffTotal;
+        animOffTotal += animOffDiff;
+    }
+}
+
+// Adds the size of frame g's FrameDataBottom to frameOffDiff
+private static void addFrameDataBottom(int g)
+{
+    if(nf.notV300)
+    {
+        frameOffDiff += 4+(nf.numCoordSets(g)*8);
     }
     frameOffDiff += nf.cdBlockSize;
     if(nf.hasEB)
     {
-        nf.entryBlocks[a][f][0] = b64Dec(eBlocks[fbDex[3]++]);
-        nf.entryBlocks[a][f][1] = b64Dec(eBlocks[fbDex[3]++]);
-        nf.entryBlocks[a][f][2] = b64Dec(eBlocks[fbDex[3]++]);
-        nf.entryBlocks[a][f][3] = b64Dec(eBlocks[fbDex[3]++]);
-        nf.entryBlocks[a][f][4] = b64Dec(eBlocks[fbDex[3]++]);
-        nf.entryBlocks[a][f][5] = b64Dec(eBlocks[fbDex[3]++]);
         frameOffDiff += 168;
     }
-    nf.unknownData1[a][f][0] = b64Dec(uData1[fbDex[4]++]);
-    nf.unknownData1[a][f][1] = b64Dec(uData1[fbDex[4]++]);
-    nf.soundEffect[a][f]     = sfx[fbDex[5]++];
-    nf.unknownData2[a][f]    = b64Dec(uData2[fbDex[6]++]);
     frameOffDiff += 44+18+18;
     if(nf.maybeMCV)
     {
-        nf.hasMCValues[a][f] = hasMCV[fbDex[7]++];
         frameOffDiff += 4;
-        if(nf.hasMCValues[a][f]==1)
+        if(nf.hasMCValues[g]==1)
         {
-            nf.mcSizeSum += 28;
-            frameOffDiff += 28;
-            nf.mcValues[a][f][0] = mcVals[0][fbDex[8]];
-            nf.mcValues[a][f][1] = mcVals[1][fbDex[8]];
-            nf.mcValues[a][f][2] = mcVals[2][fbDex[8]];
-            nf.mcValues[a][f][3] = mcVals[3][fbDex[8]];
-            nf.mcValues[a][f][4] = mcVals[4][fbDex[8]];
-            nf.mcValues[a][f][5] = mcVals[5][fbDex[8]];
-            nf.mcValues[a][f][6] = mcVals[6][fbDex[8]++];
-            int A = nf.mcValues[a][f][1]*nf.mcValues[a][f][2];
-            nf.mcSizeSum += A;
-            frameOffDiff += A;
-            nf.mcParam7[a][f] = mcParam7[fbDex[9]++];
-            nf.mcParam8[a][f] = b64Dec(mcParam8[fbDex[10]++]);
-            nf.mcSizeSum += 20;
-            frameOffDiff += 20;
+            int A = nf.mcValues[7*g+1]*nf.mcValues[7*g+2];
+            nf.mcSizeSum += 28+A+20;
+            frameOffDiff += 28+A+20;
         }
     }
 }
 
-// An anti-duplication + better readability function
-private static int getMax(int[] array)
+// Makes the model from the columns readCfg() filled
+private static NORI toModel(File config)
 {
-    max=0;
-    for(int x : array)
+    NORI m = new NORI();
+    m.setDir(config);
+    m.name = cfgName;
+    // NORI, GAWI & palette Header Data (missing tags keep the NORI defaults)
+    int[] h = m.hdrValues();
+    for(int t=0; t < h.length; t++)
+    {
+        if(hdrSet[t]) h[t] = hdr[t];
+    }
+    m.setHdrValues(h);
+    m.setVerSpecific();
+    // BMP Offsets & BMP Specs
+    m.bpos = bpos;
+    m.bmpOffsets = bmpOffs.toArray();
+    m.bmpCount   = bmpCnt.toArray();
+    m.totalBMP   = getIntArrSum(m.bmpCount);
+    int[] bmp6 = specs.toArray();// dataLength,w,h,bParam4,bmp_x,bmp_y
+    m.bmpSpecs = new int[m.totalBMP][];
+    for(int bmp=0; bmp < m.totalBMP; bmp++)
+    {
+        m.bmpSpecs[bmp] = Arrays.copyOfRange(bmp6,6*bmp,6*bmp+6);
+    }
+    // Animation Data
+    m.apos = apos;
+    m.animOffsets = animOffs.toArray();
+    m.title       = getStrArrByTag(40);
+    m.numFrames   = frameCnt.toArray();
+    m.totalFrames = getIntArrSum(m.numFrames);
+    // Frame #s of each animation (see NORI), frames are in file order
+    m.frameStart   = startIdx(m.numFrames);
+    m.frameOffsets = frameOffs.toArray();
+    // FrameDataTop Data (duration,numPlanes per frame)
+    m.frameDataTop = fdTop.toArray();
+    m.planeStart = new int[m.frameDataTop.length/2+1];
+    for(int g=0; g < m.planeStart.length-1; g++)
+    {
+        m.planeStart[g+1] = m.planeStart[g]+m.frameDataTop[2*g+1];
+    }
+    m.totalPlanes = m.planeStart[m.planeStart.length-1];
+    // PlaneData (7 ints per plane)
+    m.planeData = planes.toArray();
+    if(m.notV300)
+    {
+        // Coordinate Data (x,y per coordSet)
+        m.coordStart = startIdx(coordCnt.toArray());
+        m.coordSets  = coords.toArray();
+    }
+    setFrameDataBottom(m);
+    return m;
+}
+
+// The FrameDataBottom columns go 1 frame after another, in file order
+private static void setFrameDataBottom(NORI m)
+{
+    int frames = m.totalFrames;
+    String[] eBlocks = getStrArrByTag(56), uData1 = getStrArrByTag(57);
+    String[] sfx = getStrArrByTag(58), uData2 = getStrArrByTag(59);
+    String[] mcParam7 = getStrArrByTag(68), mcParam8 = getStrArrByTag(69);
+    int[] hasMCV = hasMCVs.toArray(), mcVals = mcVCols.toArray();
+    int[] fbDex = new int[11];
+    if(m.hasEB) m.entryBlocks = new byte[frames][6][];
+    m.unknownData1 = new byte[frames][2][];
+    m.soundEffect  = new String[frames];
+    m.unknownData2 = new byte[frames][];
+    if(m.maybeMCV)
+    {
+        m.hasMCValues = new int[frames];
+        m.mcValues    = new int[7*frames];
+        m.mcParam7    = new String[frames];
+        m.mcParam8    = new byte[frames][];
+    }
+    for(int g=0; g < frames; g++)
     {
-        if(x > max) max=x;
+        if(m.hasEB)
+        {
+            for(int i=0; i < 6; i++)
+            {
+                m.entryBlocks[g][i] = b64Dec(eBlocks[fbDex[3]++]);
+            }
+        }
+        m.unknownData1[g][0] = b64Dec(uData1[fbDex[4]++]);
+        m.unknownData1[g][1] = b64Dec(uData1[fbDex[4]++]);
+        m.soundEffect[g]     = sfx[fbDex[5]++];
+        m.unknownData2[g]    = b64Dec(uData2[fbDex[6]++]);
+        if(m.maybeMCV)
+        {
+            m.hasMCValues[g] = hasMCV[fbDex[7]++];
+            if(m.hasMCValues[g]==1)
+            {
+                // 7 per frame w/ hasMCValues 1
+                System.arraycopy(mcVals,7*fbDex[8]++,m.mcValues,7*g,7);
+                m.mcParam7[g] = mcParam7[fbDex[9]++];
+                m.mcParam8[g] = b64Dec(mcParam8[fbDex[10]++]);
+            }
+        }
     }
-    return max;
+}
+
+// CSR start indices: entry i is the sum of counts[0] to counts[i-1], so the
+// things counted for i are start[i] up to start[i+1]
+private static int[] startIdx(int[] counts)
+{
+    int[] start = new int[counts.length+1];
+    for(int i=0; i < counts.length; i++)
+    {
+        start[i+1] = start[i]+counts[i];
+    }
+    return start;
 }
 
 private static int getIntArrSum(int[] array)
@@ -310,46 +368,130 @@ private static byte[] b64Dec(String s)
     return Base64.getDecoder().decode(s.getBytes());
 }
 
-// Get single int array (int[]) by tagName
-private static int[] getIntArrByTag(String tag)
+// Makes the columns & the tag name lookup for readCfg()
+private static void prepCols()
 {
-    NodeList nl = cfg.getElementsByTagName(tag);
-    max = nl.getLength();
-    int[] tmp = new int[max];
-    for(int i = 0; i < max; i++)
+    int tags = nf.xml_tag.length;
+    tagNum = new HashMap<>();
+    for(int t=0; t < tags; t++)
+    {
+        tagNum.put(nf.xml_tag[t],t);
+    }
+    hdr = new int[tags];
+    hdrSet = new boolean[tags];
+    bpos = apos = 0;
+    cfgName = "";
+    colField = new int[tags];
+    intCol = new IntCols[tags];
+    strCol = new ArrayList<>(Collections.nCopies(tags,null));
+    bmpOffs  = intCols(31);
+    bmpCnt   = intCols(32);
+    specs    = intCols(33,34,35,36,37,38);// dataLength,w,h,bParam4,x,y
+    animOffs = intCols(39);
+    frameCnt = intCols(41);
+    frameOffs= intCols(42);
+    fdTop    = intCols(43,44);// duration,numPlanes
+    planes   = intCols(45,46,47,48,49,50,51);
+    coordCnt = intCols(52);
+    coords   = intCols(53,54);
+    hasMCVs  = intCols(60);
+    mcVCols  = intCols(61,62,63,64,65,66,67);
+    for(int t : new int[]{40,56,57,58,59,68,69})
     {
-        Node n = nl.item(i);
-        tmp[i] = toInt((n.getTextContent()).trim());
+        strCol.set(t,new ArrayList<>());
     }
-    return tmp;
 }
 
-// Get single string array (String[]) by tagName
-private static String[] getStrArrByTag(String tag)
+// 1 column for all the tags, field k of each record is the kth tag's
+private static IntCols intCols(int... tags)
 {
-    NodeList nl = cfg.getElementsByTagName(tag);
-    max = nl.getLength();
-    String[] tmp = new String[max];
-    for(int i = 0; i < max; i++)
+    IntCols cols = new IntCols(tags.length);
+    for(int k=0; k < tags.length; k++)
     {
-        Node n = nl.item(i);
-        tmp[i] = (n.getTextContent()).trim();
+        intCol[tags[k]] = cols;
+        colField[tags[k]] = k;
     }
-    return tmp;
+    return cols;
 }
 
-// An anti-duplication + better readability function
-private static Element getElementByTagName(String tagName)
+// The single pass: every needed tag's text goes in its column as it is read.
+// Header tags (xml_tag 0-30) only count inside their own header element, &
+// only the 1st time, like the old lookups in the 1st NORI_HDR/GAWI_HDR/PAL.
+private static void readCfg(File config) throws Exception
 {
-    Node node0 = cfg.getElementsByTagName(tagName).item(0);
-    return (Element) node0;
+    XMLInputFactory xif = XMLInputFactory.newInstance();
+    try(InputStream is = new BufferedInputStream(
+            Files.newInputStream(config.toPath()),1<<16))
+    {
+        XMLStreamReader r = xif.createXMLStreamReader(is);
+        String section = "";
+        boolean root = true;
+        while(r.hasNext())
+        {
+            int event = r.next();
+            if(event==XMLStreamConstants.END_ELEMENT)
+            {
+                if(r.getLocalName().equals(section)) section = "";
+                continue;
+            }
+            if(event!=XMLStreamConstants.START_ELEMENT) continue;
+            String name = r.getLocalName();
+            if(root)
+            {
+                // Set NORI element, get & set NORI file name
+                String n = r.getAttributeValue(null,"name");
+                cfgName = (n==null ? "" : n);
+                root = false;
+                continue;
+            }
+            Integer t = tagNum.get(name);
+            if(t==null)
+            {
+                if(name.equals("NORI_HDR") || name.equals("GAWI_HDR") ||
+                   name.equals("PAL")) section = name;
+                // offset="bpos+bmpOffset", likewise for apos
+                if(name.equals("BMP") && bpos==0) bpos = offsetBase(r);
+                if(name.equals("ANIM") && apos==0) apos = offsetBase(r);
+                continue;
+            }
+            String val = r.getElementText().trim();
+            if(t < 31)
+            {
+                if(section.equals(hdrSection(t)) && !hdrSet[t])
+                {
+                    hdr[t] = toInt(val);
+                    hdrSet[t] = true;
+                }
+            }
+            else if(intCol[t]!=null)
+                intCol[t].add(colField[t],toInt(val));
+            else if(strCol.get(t)!=null)
+                strCol.get(t).add(val);
+        }
+        r.close();
+    }
 }
 
-// An anti-duplication + better readability function
-private static int getIntVal(Element parentE,String tagName)
+// The part of an offset attribute before the '+'
+private static int offsetBase(XMLStreamReader r)
+{
+    String offset = r.getAttributeValue(null,"offset");
+    if(offset==null || offset.indexOf('+') < 0) return 0;
+    return toInt(offset.substring(0,offset.indexOf('+')).trim());
+}
+
+// Which header element header tag t belongs to
+private static String hdrSection(int t)
+{
+    if(t < 10) return "NORI_HDR";
+    if(t < 21) return "GAWI_HDR";
+    return "PAL";
+}
+
+// Get single string array (String[]) by xml_tag #
+private static String[] getStrArrByTag(int t)
 {
-    Node node0 = parentE.getElementsByTagName(tagName).item(0);
-    return toInt((node0.getTextContent()).trim());
+    return strCol.get(t).toArray(new String[0]);
 }
 
 // An anti-duplication + better readability function
@@ -31,6 +31,19 @@ No dealing with the RGB like its a short int. We do things the byte way.
 All data is little-endian format. Don't think too hard about the actual code.
 It is a huge headache to understand these bit formats.
 
+The one exception to the byte way is the color lookup tables. Every possible
+16-bit pixel (all 65536 of them) is converted to 24-bit once, using the bit
+formulas in build16BitTable, and packed into an int as 0x00RRGGBB. The palette
+gets the same treatment. After that, converting a pixel is just a table load.
+
+When Java is started with '--add-modules jdk.incubator.vector', the 16-bit
+conversions are done 16 pixels at a time by JBLVector instead (if the CPU can do
+it & the results match the scalar kernels exactly). Without the module, nothing
+changes & JBLVector is never even loaded.
+
+Setting the output format to the input format (RGB8 for 8-bit) skips all of
+that. The pixels are copied as-is, with the palette or bitmasks in the header.
+
 For the sake of versatility all members of the class are public & rely as little
 as possible on each other for data, relying mostly on params & class vars.
 This means you are responsible for using them in the right order, though.
@@ -40,7 +53,7 @@ For your benefit, the functions are actually in the order you should use them,
 with the exception of stripPadding & reverseRows whose location/existence in
 your program can vary a lot with your use-case.
 
-Version: 1.1.2
+Version: 1.5.0
 */
 public class JBL
 {
@@ -50,7 +63,12 @@ public int Bpp,bppOut,pixels,pxLen,nLen,bitmaskR,bitmaskG,bitmaskB,bitmaskA;
 public String name,dir,bitFmtIn,bitFmtOut,RGB8="RGB8";
 public String RGB24="RGB24",RGB555="RGB555",RGB565="RGB565",ARGB16="ARGB16";
 public byte[][] palette = new byte[256][3];
+public int[] palette24 = new int[256];
 public boolean bitFmtOutSet=false;
+public BitFmt fmtIn,fmtOut;
+
+// The bit formats as an enum, so they're picked once instead of per pixel
+public enum BitFmt { RGB8, RGB24, RGB555, RGB565, ARGB16 }
 
 // constructor for JBL class
 public JBL(){}
@@ -127,7 +145,15 @@ public void getBitmapVars(byte[] bitmap)
 // Sets the palette array, required for 8-bit conversions
 public void setPalette(byte[][] pal)
 {
+    // no palette given, keep the default (all black) one
+    if(pal==null) return;
     palette = pal;
+    // flat copy of the palette, packed the same way as the 16-bit tables
+    for(int c=0; c < 256; c++)
+    {
+        palette24[c] = (pal[c][0] & 0xFF) | (pal[c][1] & 0xFF) << 8 |
+                       (pal[c][2] & 0xFF) << 16;
+    }
 }
 
 // Sets the input bit format, required for 16-bit conversions
@@ -135,6 +161,8 @@ public void set16BitFmtIn(String bitFormat)
 {
     bitFmtIn = bitFormat;
     bitFmtOut = bitFormat;
+    fmtIn = toBitFmt(bitFormat);
+    fmtOut = fmtIn;
 }
 
 // Sets bit format output, required for a bppOut != bpp
@@ -142,11 +170,23 @@ public void set16BitFmtIn(String bitFormat)
 public void setBitFmtOut(String bitFormat)
 {
     bitFmtOut = bitFormat;
+    fmtOut = toBitFmt(bitFormat);
     if(bitFmtOut.equals(RGB24)) bppOut=24;
     if(!bitFmtOut.equals(RGB24)) bppOut=16;
+    if(bitFmtOut.equals(RGB8)) bppOut=8;
     bitFmtOutSet = true;
 }
 
+// Matches a bit format name to its BitFmt, null if it isn't a known format
+public static BitFmt toBitFmt(String bitFormat)
+{
+    for(BitFmt f : BitFmt.values())
+    {
+        if(f.name().equals(bitFormat)) return f;
+    }
+    return null;
+}
+
 // Use of 1 of the following is required for makeBMP(byte[],int,String)
 //##########################################################################
 
@@ -180,6 +220,7 @@ public byte[] getImgBytes(ByteBuffer bb, int dataLength)
 // An interface to convert pixels to a standard RGB format
 public byte[] toStdRGB(byte[] rawPixels)
 {
+    if(isPassThrough()) return addPadding(rawPixels, bpp/8);
     byte[] temp24 = toRGB24(rawPixels);
     if(bppOut==16)
         return addPadding((toRGB16(temp24)), 2);
@@ -187,116 +228,194 @@ public byte[] toStdRGB(byte[] rawPixels)
         return addPadding(temp24, 3);
 }
 
+// Whether the output format is the input format, so the pixels need no changes.
+// That is indexed 8-bit to indexed 8-bit, or 16-bit to the same 16-bit format.
+// 16-bit only counts if the output format was set, since the default trip
+// through 24-bit also clears the unused top bit.
+public boolean isPassThrough()
+{
+    if(bpp!=bppOut) return false;
+    if(bpp==16) return bitFmtOutSet && fmtIn!=null && fmtIn==fmtOut;
+    return bpp==8 || bpp==24;
+}
+
 // Converts other BMP formats to the uncompressed 24-bit format
 public byte[] toRGB24(byte[] rawBytes)
 {
+    // pass 24-bit (or unknown) bitmap data right through untouched
+    if(!hasRGB24Kernel()) return rawBytes;
     byte[] px = new byte[pixels*3];
-    // convert 8-bit bmp data to 24-bit data
+    toRGB24(rawBytes,0,px,0,pixels);
+    return px;
+}
+
+// Whether toRGB24 actually converts the input bpp/format, or passes it through
+public boolean hasRGB24Kernel()
+{
+    return rgb24Table()!=null;
+}
+
+// Picks the lookup table for the input bpp/format, null means pass through
+public int[] rgb24Table()
+{
+    if(bpp==8) return palette24;
+    if(bpp==16 && fmtIn!=null)
+    {
+        switch(fmtIn)
+        {
+        case RGB555:
+            return Tables.rgb555;
+        case RGB565:
+            return Tables.rgb565;
+        case ARGB16:
+            return Tables.argb16;
+        default:
+            break;
+        }
+    }
+    return null;
+}
+
+// Converts n pixels, starting at src[srcOff], to 24-bit pixels at px[pxOff]
+public void toRGB24(byte[] rawBytes, int srcOff, byte[] px, int pxOff, int n)
+{
+    int done = 0;
+    // 16-bit formats go through the vector kernel first, when it's usable
+    if(bpp==16 && n >= 16 && rgb24Table()!=null && Simd.on)
+        done = JBLVector.toRGB24(fmtIn,rawBytes,srcOff,px,pxOff,n);
+    scalarRGB24(rawBytes,srcOff+done*2,px,pxOff+done*3,n-done);
+}
+
+// The plain Java version of toRGB24, also does whatever the vectors left over
+public void scalarRGB24(byte[] rawBytes, int srcOff, byte[] px, int pxOff, int n)
+{
+    int[] table = rgb24Table();
+    // convert 8-bit bmp data to 24-bit data, the byte is the palette index
     if(bpp==8)
     {
-        for(int i = 0; i < pixels; i++)
+        for(int i=0, y=pxOff; i < n; i++, y+=3)
         {
-            int x = i*3, r=0, g=1, b=2;
-            // get the color index from the 8bit bmp array
-            int c = rawBytes[i];
-            // bytes are always signed, deal with the negative half
-            if(c < 0) c = (c & 0xFF);
-            // add/assign the rgb bytes from the palette based on the index
-            px[x+0] = palette[c][r];
-            px[x+1] = palette[c][g];
-            px[x+2] = palette[c][b];
+            int c = table[rawBytes[srcOff+i] & 0xFF];
+            px[y+0] = (byte)c;
+            px[y+1] = (byte)(c >> 8);
+            px[y+2] = (byte)(c >> 16);
         }
     }
-    // ######################## 16-bit Conversions ########################
-    else if(bpp==16 && bitFmtIn.equals(RGB555))
+    // convert 16-bit bmp data to 24-bit data, the 2 bytes are the table index
+    else if(table!=null)
     {
-        // RGB555 (5 bits per color) stored in 2 bytes
-        for(int i = 0; i < pixels; i++)
+        for(int i=0, x=srcOff, y=pxOff; i < n; i++, x+=2, y+=3)
         {
+            int c = table[(rawBytes[x] & 0xFF) | (rawBytes[x+1] & 0xFF) << 8];
+            px[y+0] = (byte)c;
+            px[y+1] = (byte)(c >> 8);
+            px[y+2] = (byte)(c >> 16);
+        }
+    }
+    // pass 24-bit bitmap data right through untouched
+    else
+    {
+        System.arraycopy(rawBytes,srcOff,px,pxOff,n*(bpp/8));
+    }
+}
+
+// The 16-bit to 24-bit lookup tables, built the first time they are needed.
+// The JVM builds a class only once, even with many threads, so this is safe.
+private static class Tables
+{
+    static final int[] rgb555 = build16BitTable(BitFmt.RGB555);
+    static final int[] rgb565 = build16BitTable(BitFmt.RGB565);
+    static final int[] argb16 = build16BitTable(BitFmt.ARGB16);
+}
+
+// Whether the JBLVector kernels are used, also decided the first time needed.
+// They need 'java --add-modules jdk.incubator.vector' & must pass selfCheck.
+private static class Simd
+{
+    static final boolean on = ModuleLayer.boot()
+        .findModule("jdk.incubator.vector").isPresent() &&
+        JBLVector.selfCheck();
+}
+
+// Converts every possible 16-bit pixel of the format into a packed 24-bit one
+public static int[] build16BitTable(BitFmt fmt)
+{
+    int[] table = new int[65536];
+    for(int i=0; i < 65536; i++)
+    {
+        byte b1=(byte)i, b2=(byte)(i >> 8);
+        int r=0, g=0, b=0;
+        switch(fmt)
+        {
+        case RGB555:
+            // RGB555 (5 bits per color) stored in 2 bytes
             // A shoutout to OrigamiGuy for insight on this conversion
-            int x=i*2, y=i*3;
-            byte b1=rawBytes[x], b2=rawBytes[x+1];
-            // assign the bits inside the 2 bytes to r, g, b vars
-            int b = (b1 & 0x1F) << 3;
-            int g = ((b2 & 0x03) << 6) | ((b1 & 0xE0) >> 2);
-            int r = (b2 & 0x7C) << 1;
+            b = (b1 & 0x1F) << 3;
+            g = ((b2 & 0x03) << 6) | ((b1 & 0xE0) >> 2);
+            r = (b2 & 0x7C) << 1;
             // mirror the 5 bits to 3 empty ones to get the right 8bit vals
             r = r | r >> 5;
             g = g | g >> 5;
             b = b | b >> 5;
-            // change the int vars to bytes vars & add them to px array add
-            // them in reverse order b/c that is the way format is, ugh
-            px[y+0] = (byte)b;
-            px[y+1] = (byte)g;
-            px[y+2] = (byte)r;
-        }
-    }
-    else if(bpp==16 && bitFmtIn.equals(RGB565))
-    {
-        // RGB565 stored in 2 bytes (as bgr)
-        for(int i = 0; i < pixels; i++)
-        {
-            int x=i*2, y=i*3;
-            byte b1=rawBytes[x], b2=rawBytes[x+1];
-            // assign the bits inside the 2 bytes to r, g, b vars
-            int b = (b1 & 0x1F) << 3;
-            int g = ((b2 & 0x07) << 5) | ((b1 & 0xE0) >> 3);
-            int r = (b2 & 0xF8);
+            break;
+        case RGB565:
+            // RGB565 stored in 2 bytes (as bgr)
+            b = (b1 & 0x1F) << 3;
+            g = ((b2 & 0x07) << 5) | ((b1 & 0xE0) >> 3);
+            r = (b2 & 0xF8);
             // mirror the color bits to the empty bits for correct 8bit vals
             r = r | r >> 5;
             g = g | g >> 6;
             b = b | b >> 5;
-            // change the int vars to bytes vars & add them to px array add
-            // them in reverse order b/c that is the way format is, ugh
-            px[y+0] = (byte)b;
-            px[y+1] = (byte)g;
-            px[y+2] = (byte)r;
-        }
-    }
-    else if(bpp==16 && bitFmtIn.equals(ARGB16))
-    {
-        // ARGB16 (ARGB4444) (4 bits per color) stored in 2 bytes
-        // bitmaps don't support transparency, so even though this format is
-        // mainly used to support it in 16-bit, I'm going to ignore it, ftb.
-        for(int i = 0; i < pixels; i++)
-        {
-            int x=i*2, y=i*3;
-            byte b1=rawBytes[x], b2=rawBytes[x+1];
-            // assign the bits inside the 2 bytes to a, r, g, b vars
-            int a = (b2 & 0xF0);
-            int r = (b2 & 0x0F) << 4;
-            int g = (b1 & 0xF0);
-            int b = (b1 & 0x0F) << 4;
+            break;
+        case ARGB16:
+            // ARGB16 (ARGB4444) (4 bits per color) stored in 2 bytes
+            // bitmaps don't support transparency, so even though this format
+            // is mainly used to support it in 16-bit, I'm going to ignore it.
+            r = (b2 & 0x0F) << 4;
+            g = (b1 & 0xF0);
+            b = (b1 & 0x0F) << 4;
             // mirror the 4 bits to 4 empty ones to get the right 8bit vals
-            a = a | a >> 4;
             r = r | r >> 4;
             g = g | g >> 4;
             b = b | b >> 4;
-            // change the int vars to bytes vars & add them to px array add
-            // them in reverse order b/c that is the way the format is, ugh
-            px[y+0] = (byte)b;
-            px[y+1] = (byte)g;
-            px[y+2] = (byte)r;
+            break;
+        default:
+            break;
         }
+        // packed in the order the bytes get written: b, g, r
+        table[i] = (b & 0xFF) | (g & 0xFF) << 8 | (r & 0xFF) << 16;
     }
-    // pass 24-bit bitmap data right through untouched
-    else
-    {
-        px = rawBytes;
-    }
-    return px;
+    return table;
 }
 
 // Converts standard 24-bit BMP pixels to 16-bit
 public byte[] toRGB16(byte[] rgb24)
 {
     byte[] rgb16 = new byte[pixels*2];
-    if(bitFmtOut.equals(RGB555))
+    toRGB16(rgb24,0,rgb16,0,pixels);
+    setBitmasks();
+    return rgb16;
+}
+
+// Converts n 24-bit pixels, starting at rgb24[srcOff], to 16-bit at rgb16[off]
+public void toRGB16(byte[] rgb24, int srcOff, byte[] rgb16, int off, int n)
+{
+    int done = 0;
+    if(n >= 16 && Simd.on)
+        done = JBLVector.toRGB16(fmtOut,rgb24,srcOff,rgb16,off,n);
+    scalarRGB16(rgb24,srcOff+done*3,rgb16,off+done*2,n-done);
+}
+
+// The plain Java version of toRGB16, also does whatever the vectors left over
+public void scalarRGB16(byte[] rgb24, int srcOff, byte[] rgb16, int off, int n)
+{
+    if(fmtOut==BitFmt.RGB555)
     {
         // RGB24 to RGB555 (5 bits per color) stored in 2 bytes
-        for(int i=0; i < pixels; i++)
+        for(int i=0; i < n; i++)
         {
-            int x=i*2, y=i*3;
+            int x=off+i*2, y=srcOff+i*3;
             byte b=rgb24[y],g=rgb24[y+1],r=rgb24[y+2];
             int b1 = ((g<<2) & 0xE0) | ((b>>3) & 0x1F);
             int b2 = ((r>>1) & 0x7C) | ((g>>6) & 0x03);
@@ -304,17 +423,13 @@ public byte[] toRGB16(byte[] rgb24)
             rgb16[x+0] = (byte)b1;
             rgb16[x+1] = (byte)b2;
         }
-        // A good location to set rgb555-specific bitmask info
-        bitmaskR = 31744;
-        bitmaskG = 992;
-        bitmaskB = 31;
     }
-    else if(bitFmtOut.equals(ARGB16))
+    else if(fmtOut==BitFmt.ARGB16)
     {
         // RGB24 to ARGB16 stored in 2 bytes
-        for(int i = 0; i < pixels; i++)
+        for(int i = 0; i < n; i++)
         {
-            int x=i*2, y=i*3;
+            int x=off+i*2, y=srcOff+i*3;
             byte b=rgb24[y],g=rgb24[y+1],r=rgb24[y+2];
             // assign the a, r, g, b vars to 2 bytes
             int b1 = (g & 0xF0) | (b & 0x0F);
@@ -327,9 +442,9 @@ public byte[] toRGB16(byte[] rgb24)
     else
     {
         // RGB24 to RGB565 Standard 16bit Format for bitmaps
-        for(int i=0; i < pixels; i++)
+        for(int i=0; i < n; i++)
         {
-            int x=i*2, y=i*3;
+            int x=off+i*2, y=srcOff+i*3;
             byte b=rgb24[y],g=rgb24[y+1],r=rgb24[y+2];
             int b1 = ((g<<3) & 0xE0) | ((b>>3) & 0x1F);
             int b2 = (r & 0xF8) | ((g>>5) & 0x07);
@@ -337,37 +452,37 @@ public byte[] toRGB16(byte[] rgb24)
             rgb16[x+0] = (byte)b1;
             rgb16[x+1] = (byte)b2;
         }
-        // A good location to set rgb565-specific bitmask info
+    }
+}
+
+// Sets the bitmask info of the 16-bit output format (used by setHeader)
+public void setBitmasks()
+{
+    if(fmtOut==BitFmt.RGB555)
+    {
+        bitmaskR = 31744;
+        bitmaskG = 992;
+        bitmaskB = 31;
+    }
+    else if(fmtOut!=BitFmt.ARGB16)
+    {
         bitmaskR = 63488;
         bitmaskG = 2016;
         bitmaskB = 31;
     }
-    return rgb16;
 }
 
 // add the necessary scanline byte padding required by bitmaps
 public byte[] addPadding(byte[] rgb, int BppOut)
 {
     int colorBytes=w*BppOut, padBytes=(4-(w*BppOut%4))%4;
-    int scanline=colorBytes+padBytes, size=scanline*h, dex1=0, dex2=0;
+    int scanline=colorBytes+padBytes, size=scanline*h;
+    if(padBytes==0) return rgb;
     byte[] scanlines = new byte[size];
-    byte padByte = 0x00;
-    if(padBytes!=0)
-    {
-        for(int i=0; i < h; i++)
-        {
-            for(int x=0; x < scanline; x++)
-            {
-                if(x < colorBytes)
-                    scanlines[dex1++] = rgb[dex2++];
-                else
-                    scanlines[dex1++] = padByte;
-            }
-        }
-    }
-    else
+    // the pad bytes are already 0x00, so only the colors need copying
+    for(int i=0; i < h; i++)
     {
-        scanlines = rgb;
+        System.arraycopy(rgb,i*colorBytes,scanlines,i*scanline,colorBytes);
     }
     return scanlines;
 }
@@ -376,24 +491,12 @@ public byte[] addPadding(byte[] rgb, int BppOut)
 public byte[] stripPadding(byte[] scanlines)
 {
     int colorBytes=w*(bpp/8), padBytes=(4-(w*(bpp/8)%4))%4;
-    int scanline=colorBytes+padBytes, size=colorBytes*h, dex1=0, dex2=0;
+    int scanline=colorBytes+padBytes, size=colorBytes*h;
+    if(padBytes==0) return scanlines;
     byte[] rgb = new byte[size];
-    if(padBytes!=0)
-    {
-        for(int i=0; i < h; i++)
-        {
-            for(int x=0; x < scanline; x++)
-            {
-                if(x<colorBytes)
-                    rgb[dex1++] = scanlines[dex2++];
-                else
-                    dex2++;//skip through padding
-            }
-        }
-    }
-    else
+    for(int i=0; i < h; i++)
     {
-        rgb = scanlines;
+        System.arraycopy(scanlines,i*scanline,rgb,i*colorBytes,colorBytes);
     }
     return rgb;
 }
@@ -402,25 +505,97 @@ public byte[] stripPadding(byte[] scanlines)
 // bottom-up, with the last scanline at the top and vice versa.
 public byte[] reverseRows(byte[] topDownLines)
 {
-    int scanline=(topDownLines.length / h), dex1=0, dex2=0;
+    int scanline=(topDownLines.length / h), lastLine=h-1;
     byte[] trueScanlines = new byte[topDownLines.length];
-    byte[][] scanlines = new byte[h][scanline];
     for(int i=0; i < h; i++)
     {
-        for(int x=0; x < scanline; x++)
-        {
-            scanlines[i][x] = topDownLines[dex1++];
-        }
+        System.arraycopy(topDownLines,(lastLine-i)*scanline,
+                         trueScanlines,i*scanline,scanline);
     }
-    int lastLine = h-1;
-    for(int i=0; i < h; i++)
+    return trueScanlines;
+}
+
+// Goes from a BMP's pixel data (bb is at dataStart) straight to top-down
+// unpadded pixels in one pass. Same output as
+// stripPadding(reverseRows(getImgBytes(bb,0))), but w/o the 2 extra arrays.
+public byte[] fromBMP(ByteBuffer bb)
+{
+    if(dataSize==0) dataSize = pxLen;
+    int colorBytes=w*(bpp/8), padBytes=(4-(colorBytes%4))%4;
+    int scanline=dataSize/h, start=bb.position();
+    // Odd data sizes go the long way round, which is slow but always the same
+    if(scanline!=colorBytes+padBytes)
+        return stripPadding(reverseRows(getImgBytes(bb,0)));
+    // w/o padding, anything past the last scanline is kept (as 0s), as before
+    byte[] rgb = new byte[padBytes==0 ? dataSize : colorBytes*h];
+    if(start+dataSize > bb.limit()) throw new BufferUnderflowException();
+    for(int i=0, lastLine=h-1; i < h; i++)
     {
-        for(int x=0; x < scanline; x++)
+        bb.get(start+(lastLine-i)*scanline,rgb,i*colorBytes,colorBytes);
+    }
+    bb.position(start+dataSize);
+    return rgb;
+}
+
+// Goes from top-down unpadded pixels straight to a finished BMP in one pass.
+// Same output as setBMP(reverseRows(toStdRGB(rawPixels)),false), but each
+// scanline is converted right into its final spot, padding & all. The only
+// extra array is a single 24-bit scanline, used for 16-bit output.
+public byte[] toBMP(byte[] rawPixels)
+{
+    int colorBytes=w*(bppOut/8), scanline=scanlineSize(), lineIn=w*(bpp/8);
+    byte[] bitmap = newBMP();
+    boolean same = isPassThrough(), via24 = (bppOut==16 && bpp!=24);
+    byte[] line24 = via24 ? new byte[w*3] : null;
+    for(int i=0, lastLine=h-1; i < h; i++)
+    {
+        // top-down input row i is bottom-up output row (lastLine-i)
+        int src=i*lineIn, dst=dataStart+(lastLine-i)*scanline;
+        if(same)
+        {
+            System.arraycopy(rawPixels,src,bitmap,dst,colorBytes);
+        }
+        else if(via24)
         {
-            trueScanlines[dex2++] = scanlines[lastLine-i][x];
+            toRGB24(rawPixels,src,line24,0,w);
+            toRGB16(line24,0,bitmap,dst,w);
+        }
+        else if(bppOut==16)
+        {
+            toRGB16(rawPixels,src,bitmap,dst,w);
+        }
+        else
+        {
+            toRGB24(rawPixels,src,bitmap,dst,w);
         }
     }
-    return trueScanlines;
+    return bitmap;
+}
+
+// The size of an output scanline, padding included
+public int scanlineSize()
+{
+    int colorBytes = w*(bppOut/8);
+    return colorBytes+(4-(colorBytes%4))%4;
+}
+
+// A finished BMP with a blank image, for filling in by row. Output row i (top
+// down) starts at rowStart(i). The padding bytes are already 0x00.
+public byte[] newBMP()
+{
+    int dataLength = scanlineSize()*h;
+    if(bppOut==16) setBitmasks();
+    setDibSizeParams();
+    setBitmapSize(dataLength);
+    byte[] bitmap = new byte[bmpSize];
+    System.arraycopy(setHeader(dataLength,false),0,bitmap,0,dataStart);
+    return bitmap;
+}
+
+// Where top-down row i goes in a newBMP() array, BMP rows are bottom-up
+public int rowStart(int i)
+{
+    return dataStart+(h-1-i)*scanlineSize();
 }
 
 // Set bpp-specific dib header info
@@ -432,6 +607,13 @@ public void setDibSizeParams()
         dibSize    = 56;
         compMethod = 3;
     }
+    else if(bppOut==8)
+    {
+        // the 256 color palette sits between the header & the pixels
+        dataStart  = 54+1024;
+        dibSize    = 40;
+        compMethod = 0;
+    }
     else
     {
         dataStart  = 54;
@@ -482,7 +664,7 @@ public byte[] setHeader(int dataLength, boolean hFlip)
     hdr.putInt(dataLength);
     hdr.putInt(2835);
     hdr.putInt(2835);
-    hdr.putInt(0);
+    hdr.putInt(bppOut==8 ? 256 : 0);
     hdr.putInt(0);
     if(bppOut==16)
     {
@@ -491,6 +673,17 @@ public byte[] setHeader(int dataLength, boolean hFlip)
         hdr.putInt(bitmaskB);
         hdr.putInt(bitmaskA);
     }
+    if(bppOut==8)
+    {
+        // BMP color table entries are b, g, r, then an unused byte
+        for(int i=0; i < 256; i++)
+        {
+            hdr.put(palette[i][0]);
+            hdr.put(palette[i][1]);
+            hdr.put(palette[i][2]);
+            hdr.put((byte)0);
+        }
+    }
     return header;
 }
 
@@ -522,18 +715,32 @@ public void makeBMP(byte[] BMP)
 
 // For use when making a set of BMP (one at a time in a loop)
 public void makeBMP(byte[] BMP, int currentNum, String suffix)
+{
+    makeImg(BMP,currentNum,suffix,".bmp",out);
+}
+
+// The file name of an image in a set, e.g. name_003_01.bmp
+public String imgName(int currentNum, String suffix, String ext)
+{
+    String sNum = String.format("%0"+nLen+"d", currentNum);
+    return name+"_"+sNum+suffix+ext;
+}
+
+// Same as the above, for any image format (ext is the file extension). Errors
+// go to ps, so each file's problems stay in that file's output.
+public void makeImg(byte[] image, int currentNum, String suffix, String ext,
+                    PrintStream ps)
 {
     try
     {
-        // Set BMP name and location, then write BMP to file
-        String sNum = String.format("%0"+nLen+"d", currentNum);
-        File img = new File(dir+name+"_"+sNum+suffix+".bmp");
-        Files.write(img.toPath(),BMP);
+        // Set image name and location, then write image to file
+        File img = new File(dir+imgName(currentNum,suffix,ext));
+        Files.write(img.toPath(),image);
     }
     catch(Exception ex)
     {
-        out.println("Error in (makeBMPSet):");
-        ex.printStackTrace(System.out);
+        ps.println("Error in (makeBMPSet):");
+        ex.printStackTrace(ps);
     }
 }
 }
@@ -0,0 +1,298 @@
+/*
+JBLVector.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.nio.*;
+import java.util.*;
+import jdk.incubator.vector.*;
+/**
+Class Description:
+Vector API (jdk.incubator.vector) versions of JBL's 16-bit to 24-bit and 24-bit
+to 16-bit pixel kernels. They work on blocks of 16 pixels at a time & leave the
+leftover pixels at the end of a run to JBL's scalar kernels.
+
+Dev Notes:
+This class must only be touched after JBL has seen that the incubator module is
+loaded (java --add-modules jdk.incubator.vector), otherwise it fails to load.
+JBL does that check & then calls selfCheck(), which runs every 16-bit value
+(and a spread of 24-bit values) through both the vector & scalar kernels. If a
+single byte differs, or the CPU can't do 256-bit vectors natively, JBL keeps
+using the scalar kernels.
+
+The awkward part is that a pixel is 3 bytes in 24-bit. The channels are worked
+on as 3 separate vectors (b, g, r) & shuffled in or out of the packed b,g,r
+byte order with precomputed rearrange+blend steps, 16 pixels = 48 bytes.
+
+Keep the loops small. The vectors only become real SIMD registers if the JIT can
+inline everything in the loop; when one loop handled all 3 formats, it gave up
+on inlining & the result was slower than the scalar code.
+
+Run this class directly for a speed comparison against the scalar kernels:
+java --add-modules jdk.incubator.vector -cp TNT.jar JBLVector
+
+Development Priority: LOW
+*/
+public class JBLVector
+{
+// class variables
+public static final int block = 16;// pixels per vector step
+private static final VectorSpecies<Byte> B128 = ByteVector.SPECIES_128;
+private static final VectorSpecies<Byte> B256 = ByteVector.SPECIES_256;
+private static final VectorSpecies<Short> S256 = ShortVector.SPECIES_256;
+// [output vector][channel] shuffles/masks for planar b,g,r -> packed bgr
+private static final VectorShuffle<Byte>[][] packSh = newShuffles();
+private static final VectorMask<Byte>[][] packM = newMasks();
+// [channel][input vector] shuffles/masks for packed bgr -> planar b,g,r
+private static final VectorShuffle<Byte>[][] splitSh = newShuffles();
+private static final VectorMask<Byte>[][] splitM = newMasks();
+// How JBL.toRGB16 builds each format from b, g, r: the bits kept of a color,
+// the shift right, and (for g & r) the shift left into place. ARGB16 is odd but
+// has to stay byte-for-byte the same as the scalar version.
+// {b mask, b shift, g mask, g shift, g place, r mask, r shift, r place}
+private static final int[] rgb555 = {0xF8,3, 0xF8,3,5, 0xF8,3,10};
+private static final int[] rgb565 = {0xF8,3, 0xFC,2,5, 0xF8,3,11};
+private static final int[] argb16 = {0x0F,0, 0xF0,0,0, 0x0F,0,8};
+static
+{
+    for(int v=0; v < 3; v++)
+    {
+        for(int c=0; c < 3; c++)
+        {
+            int[] pIdx = new int[block], sIdx = new int[block];
+            boolean[] pMask = new boolean[block], sMask = new boolean[block];
+            for(int l=0; l < block; l++)
+            {
+                // packed byte k of output vector v is channel k%3 of pixel k/3
+                int k = v*block+l;
+                pMask[l] = (k%3==c);
+                pIdx[l] = pMask[l] ? k/3 : 0;
+                // channel c of pixel l sits in packed byte 3l+c
+                int s = 3*l+c;
+                sMask[l] = (s/block==v);
+                sIdx[l] = sMask[l] ? s%block : 0;
+            }
+            packSh[v][c] = VectorShuffle.fromArray(B128,pIdx,0);
+            packM[v][c] = VectorMask.fromArray(B128,pMask,0);
+            splitSh[c][v] = VectorShuffle.fromArray(B128,sIdx,0);
+            splitM[c][v] = VectorMask.fromArray(B128,sMask,0);
+        }
+    }
+}
+
+// Checks CPU support & compares every result against JBL's scalar kernels
+public static boolean selfCheck()
+{
+    if(B256.vectorBitSize() > ByteVector.SPECIES_PREFERRED.vectorBitSize())
+        return false;
+    if(ByteOrder.nativeOrder()!=ByteOrder.LITTLE_ENDIAN) return false;
+    // every 16-bit pixel value once
+    int n = 65536;
+    byte[] px16 = new byte[n*2], px24 = new byte[n*3];
+    for(int i=0; i < n; i++)
+    {
+        px16[i*2] = (byte)i;
+        px16[i*2+1] = (byte)(i >> 8);
+        // all b,g pairs, with r running through all 256 values as well
+        px24[i*3] = (byte)i;
+        px24[i*3+1] = (byte)(i >> 8);
+        px24[i*3+2] = (byte)(i*7);
+    }
+    for(JBL.BitFmt fmt : new JBL.BitFmt[]{JBL.BitFmt.RGB555,
+        JBL.BitFmt.RGB565, JBL.BitFmt.ARGB16})
+    {
+        JBL bl = newJBL(fmt);
+        byte[] s24 = new byte[n*3], v24 = new byte[n*3];
+        byte[] s16 = new byte[n*2], v16 = new byte[n*2];
+        bl.scalarRGB24(px16,0,s24,0,n);
+        toRGB24(fmt,px16,0,v24,0,n);
+        bl.scalarRGB16(px24,0,s16,0,n);
+        toRGB16(fmt,px24,0,v16,0,n);
+        if(!Arrays.equals(s24,v24) || !Arrays.equals(s16,v16)) return false;
+    }
+    return true;
+}
+
+// 16-bit to 24-bit for whole blocks of n, returns # of pixels converted
+public static int toRGB24(JBL.BitFmt fmt, byte[] src, int srcOff,
+                          byte[] px, int pxOff, int n)
+{
+    int blocks = n/block;
+    // each format gets its own call, so the JIT compiles a small loop for it
+    switch(fmt)
+    {
+    case RGB565:
+        expand(src,srcOff,px,pxOff,blocks,5,6,5);
+        break;
+    case ARGB16:
+        expand(src,srcOff,px,pxOff,blocks,4,4,4);
+        break;
+    default://RGB555
+        expand(src,srcOff,px,pxOff,blocks,5,5,5);
+        break;
+    }
+    return blocks*block;
+}
+
+// The 16-bit to 24-bit loop, for a format of bBits+gBits+rBits (from bit 0 up)
+private static void expand(byte[] src, int x, byte[] px, int y, int blocks,
+                           int bBits, int gBits, int rBits)
+{
+    for(int i=0; i < blocks; i++, x+=block*2, y+=block*3)
+    {
+        ShortVector v = ByteVector.fromArray(B256,src,x).reinterpretAsShorts();
+        pack(channel(v,0,bBits),channel(v,bBits,gBits),
+             channel(v,bBits+gBits,rBits),px,y);
+    }
+}
+
+// Pulls the color out of 'bits' bits at 'shift' & mirrors it into 8 bits
+private static ByteVector channel(ShortVector v, int shift, int bits)
+{
+    ShortVector c = shr(v,shift).and((short)((1 << bits)-1));
+    return toBytes(shl(c,8-bits).or(shr(c,2*bits-8)));
+}
+
+// 24-bit to 16-bit for whole blocks of n, returns # of pixels converted
+public static int toRGB16(JBL.BitFmt fmt, byte[] rgb24, int srcOff,
+                          byte[] rgb16, int off, int n)
+{
+    int blocks = n/block;
+    if(fmt==JBL.BitFmt.RGB555)
+        shrink(rgb24,srcOff,rgb16,off,blocks,rgb555);
+    else if(fmt==JBL.BitFmt.ARGB16)
+        shrink(rgb24,srcOff,rgb16,off,blocks,argb16);
+    else
+        shrink(rgb24,srcOff,rgb16,off,blocks,rgb565);
+    return blocks*block;
+}
+
+// The 24-bit to 16-bit loop, with 'f' being one of the format arrays above
+private static void shrink(byte[] rgb24, int y, byte[] rgb16, int x,
+                           int blocks, int[] f)
+{
+    short bm=(short)f[0], gm=(short)f[2], rm=(short)f[5];
+    int bs=f[1], gs=f[3], gp=f[4], rs=f[6], rp=f[7];
+    for(int i=0; i < blocks; i++, y+=block*3, x+=block*2)
+    {
+        ByteVector in0 = ByteVector.fromArray(B128,rgb24,y);
+        ByteVector in1 = ByteVector.fromArray(B128,rgb24,y+block);
+        ByteVector in2 = ByteVector.fromArray(B128,rgb24,y+block*2);
+        ShortVector b = shr(toShorts(split(0,in0,in1,in2)).and(bm),bs);
+        ShortVector g = shr(toShorts(split(1,in0,in1,in2)).and(gm),gs);
+        ShortVector r = shr(toShorts(split(2,in0,in1,in2)).and(rm),rs);
+        // little-endian shorts, so this lands as the 2 bytes of each pixel
+        b.or(shl(g,gp)).or(shl(r,rp)).reinterpretAsBytes().intoArray(rgb16,x);
+    }
+}
+
+private static ShortVector shl(ShortVector x, int n)
+{
+    return x.lanewise(VectorOperators.LSHL,n);
+}
+
+private static ShortVector shr(ShortVector x, int n)
+{
+    return x.lanewise(VectorOperators.ASHR,n);
+}
+
+// Narrows 16 short lanes (all 0-255) to 16 byte lanes
+private static ByteVector toBytes(ShortVector x)
+{
+    return (ByteVector)x.convertShape(VectorOperators.S2B,B128,0);
+}
+
+// Widens 16 byte lanes to 16 unsigned short lanes
+private static ShortVector toShorts(ByteVector x)
+{
+    ShortVector s = (ShortVector)x.convertShape(VectorOperators.B2S,S256,0);
+    return s.and((short)0xFF);
+}
+
+// Interleaves planar b, g, r (16 pixels) into 48 packed bgr bytes at px[y]
+private static void pack(ByteVector b, ByteVector g, ByteVector r,
+                         byte[] px, int y)
+{
+    for(int v=0; v < 3; v++)
+    {
+        b.rearrange(packSh[v][0])
+         .blend(g.rearrange(packSh[v][1]),packM[v][1])
+         .blend(r.rearrange(packSh[v][2]),packM[v][2])
+         .intoArray(px,y+v*block);
+    }
+}
+
+// Pulls channel c (0=b, 1=g, 2=r) of 16 pixels out of 48 packed bgr bytes
+private static ByteVector split(int c, ByteVector in0, ByteVector in1,
+                                ByteVector in2)
+{
+    return in0.rearrange(splitSh[c][0])
+              .blend(in1.rearrange(splitSh[c][1]),splitM[c][1])
+              .blend(in2.rearrange(splitSh[c][2]),splitM[c][2]);
+}
+
+@SuppressWarnings("unchecked")
+private static VectorShuffle<Byte>[][] newShuffles()
+{
+    return (VectorShuffle<Byte>[][])new VectorShuffle<?>[3][3];
+}
+
+@SuppressWarnings("unchecked")
+private static VectorMask<Byte>[][] newMasks()
+{
+    return (VectorMask<Byte>[][])new VectorMask<?>[3][3];
+}
+
+private static JBL newJBL(JBL.BitFmt fmt)
+{
+    JBL bl = new JBL();
+    bl.set16BitFmtIn(fmt.name());
+    bl.setBitmapVars(0,0,16);
+    return bl;
+}
+
+// Speed comparison of the scalar & vector kernels on 4M random pixels
+public static void main(String[] args)
+{
+    int n = 1 << 22, reps = 20;
+    byte[] px16 = new byte[n*2], px24 = new byte[n*3];
+    byte[] out24 = new byte[n*3], out16 = new byte[n*2];
+    new Random(300).nextBytes(px16);
+    new Random(303).nextBytes(px24);
+    System.out.println("Self check passed: "+selfCheck());
+    for(JBL.BitFmt fmt : new JBL.BitFmt[]{JBL.BitFmt.RGB555,
+        JBL.BitFmt.RGB565, JBL.BitFmt.ARGB16})
+    {
+        JBL bl = newJBL(fmt);
+        for(int pass=0; pass < 2; pass++)// 1st pass warms up the JIT
+        {
+            long t0 = System.nanoTime();
+            for(int i=0; i < reps; i++) bl.scalarRGB24(px16,0,out24,0,n);
+            long t1 = System.nanoTime();
+            for(int i=0; i < reps; i++) toRGB24(fmt,px16,0,out24,0,n);
+            long t2 = System.nanoTime();
+            for(int i=0; i < reps; i++) bl.scalarRGB16(px24,0,out16,0,n);
+            long t3 = System.nanoTime();
+            for(int i=0; i < reps; i++) toRGB16(fmt,px24,0,out16,0,n);
+            long t4 = System.nanoTime();
+            if(pass==0) continue;
+            System.out.printf("%-6s toRGB24: scalar %7.2f ms, vector %7.2f ms,"+
+                " speedup %.2fx%n",fmt,(t1-t0)/1e6/reps,(t2-t1)/1e6/reps,
+                (double)(t1-t0)/(t2-t1));
+            System.out.printf("%-6s toRGB16: scalar %7.2f ms, vector %7.2f ms,"+
+                " speedup %.2fx%n",fmt,(t3-t2)/1e6/reps,(t4-t3)/1e6/reps,
+                (double)(t3-t2)/(t4-t3));
+        }
+    }
+}
+}
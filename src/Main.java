@@ -15,9 +15,9 @@ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
 GNU General Public License for more details.
 */
 import java.io.*;
-import java.nio.*;
 import java.nio.file.*;
-import java.util.zip.*;
+import java.util.*;
+import java.util.stream.*;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -47,9 +47,18 @@ public static void main(String[] args)
 {
     RTFM="See 'NORI_format.md' for information on the XML tags!";
     dLn="=====================================================================";
+    args = optCheck(args);
     argsLen = args.length;
     argCheck(args);
-    if(create_mode)
+    if(mode=='x')
+    {
+        // Convert configs, XML to binary & binary to XML
+        for(int i=1; i < argsLen; i++)
+        {
+            BinCfg.convert(new File(args[i]),out);
+        }
+    }
+    else if(create_mode)
     {
         out.println(dLn);
         switch(mode)
@@ -64,60 +73,63 @@ public static void main(String[] args)
     }
     else
     {
+        // Gather the NORI files, folders are searched for .nri & .bac files
+        List<File> nFiles = new ArrayList<File>();
         for(int i=1; i < argsLen; i++)
         {
             nFile = new File(args[i]);
             if(nFile.exists()==false) argErrors(3);
-            out.println(dLn);
-            byte[] nFileBA = zInflate(file2BA(nFile));
-            switch(mode)
-            {
-            case 'e':
-                Extract opt_e = new Extract(nFileBA,nFile);
-                break;
-            case 'A':
-                Analyze opt_A = new Analyze(nFileBA,nFile,true);
-                break;
-            default:
-                Analyze opt_a = new Analyze(nFileBA,nFile,false);
-                break;
-            }
+            if(nFile.isDirectory())
+                addNoriFiles(nFile,nFiles);
+            else
+                nFiles.add(nFile);
         }
+        // Extract or Analyze them, concurrently when there is more than one
+        Batch batch = new Batch(mode,nFiles,dLn);
         if(mode=='A') out.println(RTFM);
     }
 }
 
-// Checks for and decompresses zlib compression if found
-private static byte[] zInflate(byte[] in)
+// Adds every NORI file found in the folder (and its subfolders) to the list
+private static void addNoriFiles(File dir, List<File> nFiles)
+{
+    try(Stream<Path> paths = Files.walk(dir.toPath()))
+    {
+        paths.filter(Files::isRegularFile)
+             .filter(p -> isNoriName(p.getFileName().toString()))
+             .sorted()
+             .forEach(p -> nFiles.add(p.toFile()));
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (addNoriFiles):");
+        ex.printStackTrace(System.out);
+    }
+}
+
+// A space saver + better readability function
+private static boolean isNoriName(String fName)
+{
+    String lc = fName.toLowerCase();
+    return lc.endsWith(".nri") || lc.endsWith(".bac");
+}
+
+// Pulls the dash options out of args, leaves the mode & its arguments behind
+private static String[] optCheck(String[] args)
 {
-    ByteBuffer bb = ByteBuffer.wrap(in).order(ByteOrder.LITTLE_ENDIAN);
-    int sig = bb.getInt();
-    int sizeExpected = bb.getInt();
-    if(sig!=1230131022 && in[12]==0x78)
+    List<String> rest = new ArrayList<String>();
+    for(int i=0; i < args.length; i++)
     {
-        byte[] tmp = new byte[sizeExpected];
-        try
+        if(i > 0 && args[i].length() > 1 && args[i].charAt(0)=='-')
         {
-            // Inflater() expects the zlib header to be included
-            Inflater dcmp = new Inflater();
-            // Loads input byte array, start offset, compressed data size
-            dcmp.setInput(in,12,bb.getInt());
-            // Takes in a byte array & loads it with the decompressed result
-            int size = dcmp.inflate(tmp);// returns decompressed size
-            dcmp.end();
-            if(sizeExpected==size) out.println("Decompression successful!\n");
+            if(Options.set(args[i])==false) argErrors(6);
         }
-        catch(Exception ex)
+        else
         {
-            out.println("Error in (INFLATE):");
-            ex.printStackTrace(System.out);
+            rest.add(args[i]);
         }
-        return tmp;
-    }
-    else
-    {
-        return in;
     }
+    return rest.toArray(new String[0]);
 }
 
 // Determines validity of cmd-line args & prevents main() from being ugly
@@ -139,6 +151,14 @@ private static void argCheck(String[] args)
             if(argsLen !=3) argErrors(2);
             cmCheck(args);
         }
+        else if(mode=='x')
+        {
+            if(argsLen < 2) argErrors(2);
+            for(int i=1; i < argsLen; i++)
+            {
+                if(new File(args[i]).isFile()==false) argErrors(4);
+            }
+        }
         else
         {
             argErrors(1);
@@ -169,6 +189,7 @@ private static void argErrors(int errorNum)
     errMsg3 ="Error: NORI file does not exist. Nice try.";
     errMsg4 ="Error: Config file does not exist. Tragic.";
     errMsg5 ="Error: Specified BMP directory does not exist";
+    errMsg6 ="Error: Invalid or unknown option";
     switch(errorNum)
     {
     case 0:
@@ -189,6 +210,9 @@ private static void argErrors(int errorNum)
     case 5:
         out.println(errMsg5);
         break;
+    case 6:
+        out.println(errMsg6);
+        break;
     default:
         out.println("Unknown Error");
         break;
@@ -200,13 +224,14 @@ private static void argErrors(int errorNum)
 // Standard usage output, explaining available modes & required arguments
 private static void usage()
 {
-    String cr, use, col, bdr, opa, opA, ope, opc, opC, ex;
+    String cr, use, col, bdr, opa, opA, ope, opc, opC, opx, ex, ocl, opj,
+           opp, opn, opg, opf, opz, opt, opr, opi, opb, opl, ops;
     // You are not allowed to remove this copyright notice or its output
     cr ="The NORI Tool (TNT) - https://github.com/TricksterOnline/TNT\n"+
         "Copyright (C) 2014-2024 Libre Trickster Team\n"+
         "License: GPLv3+\n\n";
 
-    use="Usage: java -jar TNT.jar {mode} {/path/file.nri} {etc}\n";
+    use="Usage: java -jar TNT.jar {mode} {-options} {/path/file.nri} {etc}\n";
     col="|Mode|        Arguments         | Description                     |\n";
     bdr="===================================================================\n";
     opa="| a  | [filename(s)]            | Analyze NORI files              |\n";
@@ -214,26 +239,27 @@ private static void usage()
     ope="| e  | [filename(s)]            | Extract BMPs from NORI files    |\n";
     opc="| c  | [example.cfg] [/imgDir/] | Create NORI file                |\n";
     opC="| C  | [example.cfg] [/imgDir/] | Create w/ zlib-compression      |\n";
+    opx="| x  | [config file(s)]         | Convert .cfg <-> .bcfg configs  |\n";
+    ocl="|   Option   | Description                                        |\n";
+    opj="| -j=N       | Max # of files worked on at once (default: # CPUs) |\n";
+    opp="| -p         | e: extract the bitmaps of each file in parallel    |\n";
+    opn="| -n         | e: keep 8/16-bit BMPs at their own bit depth       |\n";
+    opg="| -png{=L}   | e: write PNGs, L = deflate level 0-9 (default: 1)  |\n";
+    opf="| -pf=F      | e: PNG filter 0-4, 5 = adaptive (default: auto)    |\n";
+    opz="| -zip{=L}   | e: 1 ZIP per file, L = 0 (stored) to 9 (default: 1)|\n";
+    opt="| -tar       | e: 1 TAR per file, instead of 1 folder per file    |\n";
+    opr="| -ar=FILE   | e: put every file's images in 1 ZIP/TAR archive    |\n";
+    opi="| -idx{=DIR} | e,a,A: cache where things are in each file (.idx)  |\n";
+    opb="| -bin       | A: write a binary config (.bcfg) instead of .cfg   |\n";
+    opl="| -zl=L      | C: zlib level 0 (stored) to 9 (default: 6)         |\n";
+    ops="| -zs=S      | C: deflate strategy 1 = filtered, 2 = Huffman only |\n";
 
-    ex ="Example: java -jar TNT.jar a ../ex/path/ntf/all.bac\n";
+    ex ="Example: java -jar TNT.jar a ../ex/path/ntf/all.bac\n"+
+        "Folders given to a, A, or e are searched for .nri & .bac files\n";
 
     // Actual output function
-    out.println("\n"+cr+use+bdr+col+bdr+opa+opA+ope+opc+opC+bdr+ex);
-}
-
-// An anti-duplication + better readability function
-private static byte[] file2BA(File file)
-{
-    byte[] ba = new byte[(int)file.length()];
-    try
-    {
-        ba = Files.readAllBytes(file.toPath());
-    }
-    catch(Exception ex)
-    {
-        out.println("Error in (file2BA):");
-        ex.printStackTrace(System.out);
-    }
-    return ba;
+    out.println("\n"+cr+use+bdr+col+bdr+opa+opA+ope+opc+opC+opx+bdr+
+                ocl+bdr+opj+opp+opn+opg+opf+opz+opt+opr+opi+opb+opl+ops+
+                bdr+ex);
 }
 }
@@ -14,7 +14,6 @@ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
 GNU General Public License for more details.
 */
 import java.io.*;
-import static java.lang.System.out;
 /**
 Class Description:
 A structure-like class that represents and stores a NORI file's data neatly.
@@ -31,8 +30,12 @@ public class NORI
 public String name,dname,dir,exdir;
 public static String fs=File.separator;
 public static String[] xml_tag;
+static
+{
+    setXmlTags();
+}
 
-public static byte[] sfx = new byte[18];
+public byte[] sfx = new byte[18];
 // Special variables for modifying NORI data
 public int totalBMP,totalFrames,totalPlanes;
 public int asize;//# of animOffsets+animations bytes
@@ -81,38 +84,111 @@ public int[] bmpOffsets;
 public int bpos;
 public int[] bmpCount;
 public int[][] bmpSpecs;
-public byte[] bmpData;
 public int bmpDataSize;
 // Special animation variables
+// The frames of all the animations are numbered together, frame f of anim a
+// is frame g = frameStart[a]+f (see frame()). Per-frame data is indexed by g.
+// Planes & coordSets are flat: frame g's planes are planeStart[g] up to
+// planeStart[g+1] (7 ints each), its coordSets coordStart[g] up to
+// coordStart[g+1] (2 ints each). That's the file's own layout, so they can be
+// read & written in bulk, & 100k planes are 1 array instead of 100k arrays.
 public int[] animOffsets;
 public int apos;
 public byte[][] titleBytes;//[anims][32];
 public String[] title;
 public int[] numFrames;
-public int[][] frameOffsets;
-public int[][][] frameDataTop;
-public int[][][][] planeData;
+public int[] frameStart;//[anims+1]
+public int[] frameOffsets;//[totalFrames]
+public int[] frameDataTop;//[totalFrames*2] duration,numPlanes
+public int[] planeStart;//[totalFrames+1]
+public int[] planeData;//[totalPlanes*7] bmp_id,x,y,opacity,flip,blend,flag
 // Special FrameDataBottom variables
 public boolean notV300=false;
-public int[][] numCoordSets;
-public int[][][][] coordSets;
+public int[] coordStart;//[totalFrames+1]
+public int[] coordSets;//[# of coordSets*2] x,y
 public int cdBlockSize;
 public boolean hasEB=false;
-public byte[][][][] entryBlocks;
-public byte[][][][] unknownData1;
-public String[][] soundEffect;
-public byte[][][] unknownData2;
+public byte[][][] entryBlocks;//[totalFrames][6][28]
+public byte[][][] unknownData1;//[totalFrames][2][22]
+public String[] soundEffect;
+public byte[][] unknownData2;//[totalFrames][18]
 public boolean maybeMCV=false;
-public int[][] hasMCValues;
-public int[][][] mcValues;//mcParam[0-6]
-public String[][] mcParam7;
-public byte[][][] mcParam8;
+public int[] hasMCValues;
+public int[] mcValues;//[totalFrames*7] mcParam[0-6]
+public String[] mcParam7;
+public byte[][] mcParam8;//[totalFrames][20]
 
 // constructor for NORI class
-public NORI()
+public NORI(){}
+
+// The overall frame # of frame f of animation a
+public int frame(int a, int f)
 {
-    setXmlTags();
+    return frameStart[a]+f;
+}
+
+public int numPlanes(int g)
+{
+    return planeStart[g+1]-planeStart[g];
+}
+
+public int numCoordSets(int g)
+{
+    return coordStart[g+1]-coordStart[g];
 }
+
+// How many data bytes follow a bitmap's specs. A dataLength of 0 means the
+// data isn't compressed & is exactly w*h*Bpp bytes. Every reader uses this.
+public int dataSize(int dataLength, int w, int h)
+{
+    return (dataLength!=0) ? dataLength : w*h*Bpp;
+}
+
+// The header values in xml_tag order (0-30): NORI, GAWI & palette headers
+public int[] hdrValues()
+{
+    return new int[]{fsig,noriVer,nParam1,nParam2,nParam3,nParam4,nParam5,
+                     anims,woGawi,fsize,gsig,gawiVer,bpp,compressed,hasPalette,
+                     gParam4,gParam5,gParam6,gParam7,bmpStructs,gsize,psig,
+                     palVer,pParam1,pParam2,pParam3,pParam4,divided,psize,
+                     mainS,mainE};
+}
+
+public void setHdrValues(int[] h)
+{
+    fsig = h[0];
+    noriVer = h[1];
+    nParam1 = h[2];
+    nParam2 = h[3];
+    nParam3 = h[4];
+    nParam4 = h[5];
+    nParam5 = h[6];
+    anims = h[7];
+    woGawi = h[8];
+    fsize = h[9];
+    gsig = h[10];
+    gawiVer = h[11];
+    bpp = h[12];
+    compressed = h[13];
+    hasPalette = h[14];
+    gParam4 = h[15];
+    gParam5 = h[16];
+    gParam6 = h[17];
+    gParam7 = h[18];
+    bmpStructs = h[19];
+    gsize = h[20];
+    psig = h[21];
+    palVer = h[22];
+    pParam1 = h[23];
+    pParam2 = h[24];
+    pParam3 = h[25];
+    pParam4 = h[26];
+    divided = h[27];
+    psize = h[28];
+    mainS = h[29];
+    mainE = h[30];
+}
+
 public static void setXmlTags()
 {
     xml_tag = new String[70];
@@ -229,8 +305,7 @@ public void setVerSpecific()
     }
     else
     {
-        out.println("Unknown NORI Version!");
-        System.exit(1);
+        throw new IllegalStateException("Unknown NORI Version: "+noriVer);
     }
 }
 
@@ -264,7 +339,6 @@ private void fixGawiHeader(boolean create_mode)
     if(create_mode)
     {
         gsize = 44;
-        compressed = 0;
         hasPalette = 0;
         if(bpp==8)
         {
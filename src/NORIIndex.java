@@ -0,0 +1,258 @@
+/*
+NORIIndex.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+/**
+Class Description:
+The NORIIndex class is a small binary cache of where everything is in a NORI
+file: the bmpStructs & bitmaps (w/ their specs), the animations & the frames.
+It is saved next to the NORI file (file.nri.idx) or in a cache folder (see
+Options.idxDir), so the next time the file is opened nothing has to be walked.
+
+Dev Notes:
+An index belongs to one file: its absolute path, size & modification time are
+stored in it, along with a copy of the NORI & GAWI header ints. If any of them
+don't match the file anymore, the index is thrown away & rebuilt, so changing
+the file (by hand or by create mode) can't leave a stale index behind.
+
+The positions are for the uncompressed file, zlib wrapped files included. The
+index is written to a temp file & moved into place, so worker threads indexing
+the same file at once can't leave a half written index either.
+
+Format (little-endian ints unless noted): sig "TNTI", version, path length,
+path (UTF-8), size (long), mtime (long), 21 header ints, gawiEnd, bmpStructs,
+structPos[], # of bitmaps, bitmaps[][10], anims, animPos[], then for each
+animation its # of frames & framePos[]. Version 1 indexes took the struct
+positions from the stored bmpOffsets, which can be wrong, so they're rebuilt.
+
+Development Priority: LOW
+*/
+public class NORIIndex
+{
+// class variables
+private static final int sig=0x49544E54, ver=2, hdrInts=21;
+private String path;
+private long size, mtime;
+public int[] header;// NORI header (10 ints) & GAWI header (11 ints)
+public int gawiEnd;// where the bitmaps end & the animOffsets start
+public int[] structPos, animPos;
+// {data position, data size, w, h, bmpStruct #, sub #, dataLength, bParam4,
+// bmp_x, bmp_y}, the first 6 are the same as Extract's bitmap index
+public int[][] bitmaps;
+public int[][] framePos;
+
+// constructor for NORIIndex class
+private NORIIndex(){}
+
+// The index for nFile: the saved one if it is up to date, otherwise a new one
+// that gets saved. nFileBB is the uncompressed file. Returns null on failure.
+public static NORIIndex get(File nFile, ByteBuffer nFileBB, PrintStream out)
+{
+    File idxFile = idxFile(nFile);
+    NORIIndex idx = load(idxFile);
+    if(idx!=null && idx.matches(nFile,nFileBB)) return idx;
+    try
+    {
+        idx = build(nFile,nFileBB);
+    }
+    catch(Exception ex)
+    {
+        out.println("Error in (NORIIndex):");
+        ex.printStackTrace(out);
+        return null;
+    }
+    try
+    {
+        idx.save(idxFile);
+    }
+    catch(Exception ex)
+    {
+        // still usable, it just has to be built again next time
+        out.println("Index not saved: "+ex);
+    }
+    return idx;
+}
+
+// Where nFile's index goes: next to it, or in the cache folder. Cached names
+// get the path's hash, so same-named files in different folders don't clash.
+public static File idxFile(File nFile)
+{
+    if(Options.idxDir.isEmpty()) return new File(nFile.getPath()+".idx");
+    String abs = nFile.getAbsolutePath();
+    String hash = String.format("%08x",abs.hashCode());
+    return new File(Options.idxDir,nFile.getName()+"_"+hash+".idx");
+}
+
+// Whether this index still describes nFile
+private boolean matches(File nFile, ByteBuffer nFileBB)
+{
+    if(!path.equals(nFile.getAbsolutePath())) return false;
+    if(size!=nFile.length() || mtime!=nFile.lastModified()) return false;
+    return Arrays.equals(header,readHeader(nFileBB));
+}
+
+// Walks the file once (through a NORIReader) & records every position
+private static NORIIndex build(File nFile, ByteBuffer nFileBB)
+throws IOException
+{
+    NORIReader r = new NORIReader(nFileBB);
+    NORIIndex idx = new NORIIndex();
+    idx.path = nFile.getAbsolutePath();
+    idx.size = nFile.length();
+    idx.mtime = nFile.lastModified();
+    idx.header = readHeader(nFileBB);
+    int structs = r.bmpStructs(), total = 0, end = r.getNORI().bpos;
+    idx.structPos = new int[structs];
+    for(int s=0; s < structs; s++)
+    {
+        idx.structPos[s] = r.structPos(s);
+        total += r.bmpCount(s);
+    }
+    idx.bitmaps = new int[total][];
+    for(int s=0,n=0; s < structs; s++)
+    {
+        int count = r.bmpCount(s);
+        end = Math.max(end,r.structPos(s)+4);
+        for(int x=0; x < count; x++,n++)
+        {
+            int p = r.bmpPos(s,x), dataSize = r.dataSize(p);
+            int[] sp = r.bmpSpecs(s,x);
+            idx.bitmaps[n] = new int[]{p+24,dataSize,sp[1],sp[2],s,
+                (count > 1 ? x+1 : 0),sp[0],sp[3],sp[4],sp[5]};
+            end = Math.max(end,p+24+dataSize);
+        }
+    }
+    idx.gawiEnd = end;
+    idx.animPos = new int[r.anims()];
+    idx.framePos = new int[r.anims()][];
+    for(int a=0; a < r.anims(); a++)
+    {
+        idx.animPos[a] = r.animPos(a);
+        idx.framePos[a] = r.frames(a);
+    }
+    return idx;
+}
+
+// Reads an index file, null if there is none or it can't be used
+private static NORIIndex load(File idxFile)
+{
+    if(!idxFile.isFile()) return null;
+    try
+    {
+        ByteBuffer bb = mkLEBB(Files.readAllBytes(idxFile.toPath()));
+        if(bb.getInt()!=sig || bb.getInt()!=ver) return null;
+        NORIIndex idx = new NORIIndex();
+        byte[] p = new byte[bb.getInt()];
+        bb.get(p);
+        idx.path = new String(p,StandardCharsets.UTF_8);
+        idx.size = bb.getLong();
+        idx.mtime = bb.getLong();
+        idx.header = getInts(bb,hdrInts);
+        idx.gawiEnd = bb.getInt();
+        idx.structPos = getInts(bb,bb.getInt());
+        idx.bitmaps = new int[bb.getInt()][];
+        for(int i=0; i < idx.bitmaps.length; i++)
+        {
+            idx.bitmaps[i] = getInts(bb,10);
+        }
+        idx.animPos = getInts(bb,bb.getInt());
+        idx.framePos = new int[idx.animPos.length][];
+        for(int a=0; a < idx.animPos.length; a++)
+        {
+            idx.framePos[a] = getInts(bb,bb.getInt());
+        }
+        return idx;
+    }
+    catch(Exception ex)
+    {
+        // damaged or cut short, so just make a new one
+        return null;
+    }
+}
+
+private void save(File idxFile) throws IOException
+{
+    byte[] p = path.getBytes(StandardCharsets.UTF_8);
+    int ints = 3+hdrInts+1+1+structPos.length+1+10*bitmaps.length+1+
+               animPos.length;
+    for(int[] frames : framePos) ints += 1+frames.length;
+    ByteBuffer bb = mkLEBB(new byte[4*ints+p.length+16]);
+    bb.putInt(sig).putInt(ver).putInt(p.length).put(p);
+    bb.putLong(size).putLong(mtime);
+    putInts(bb,header);
+    bb.putInt(gawiEnd);
+    bb.putInt(structPos.length);
+    putInts(bb,structPos);
+    bb.putInt(bitmaps.length);
+    for(int[] bmp : bitmaps) putInts(bb,bmp);
+    bb.putInt(animPos.length);
+    putInts(bb,animPos);
+    for(int[] frames : framePos)
+    {
+        bb.putInt(frames.length);
+        putInts(bb,frames);
+    }
+    Path dir = idxFile.getAbsoluteFile().getParentFile().toPath();
+    Files.createDirectories(dir);
+    Path tmp = Files.createTempFile(dir,idxFile.getName(),".tmp");
+    try
+    {
+        Files.write(tmp,bb.array());
+        Files.move(tmp,idxFile.toPath(),StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally
+    {
+        Files.deleteIfExists(tmp);
+    }
+}
+
+// The NORI & GAWI header ints, the quick check that the content is the same
+private static int[] readHeader(ByteBuffer nFileBB)
+{
+    int[] hdr = new int[hdrInts];
+    for(int i=0; i < hdrInts; i++)
+    {
+        hdr[i] = nFileBB.getInt(4*i);
+    }
+    return hdr;
+}
+
+// An anti-duplication + better readability function
+private static int[] getInts(ByteBuffer bb, int n)
+{
+    int[] ia = new int[n];
+    bb.asIntBuffer().get(ia);
+    bb.position(bb.position()+4*n);
+    return ia;
+}
+
+// An anti-duplication + better readability function
+private static void putInts(ByteBuffer bb, int[] ia)
+{
+    bb.asIntBuffer().put(ia);
+    bb.position(bb.position()+4*ia.length);
+}
+
+// Shorthand function to wrap a byte array in a little-endian bytebuffer
+private static ByteBuffer mkLEBB(byte[] ba)
+{
+    return ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
+}
+}
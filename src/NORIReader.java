@@ -0,0 +1,318 @@
+/*
+NORIReader.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.zip.*;
+/**
+Class Description:
+The NORIReader class is read-only, random access to a NORI file. Only the
+headers are read up front, everything else (bitmaps, animations, frames,
+planes) is read from the buffer when it is asked for.
+
+Dev Notes:
+Opening only costs the headers, one walk over the bitmap structures & the
+animOffsets table. A frame's offsets are read the first time anything in its
+animation is asked for. Since every read is an absolute get, nothing
+depends on the buffer's position & any number of threads can share a reader.
+
+With an index cache (see NORIIndex & Options.idxDir), even that is skipped. The
+positions all come from the index, which is only used if it's up to date.
+
+The stored bmpOffsets are never used for positions, the bitmap structures are
+walked instead, just like dryExtract does. Offsets that are off by a few bytes
+can still look fine (in order & in range) & would send everything after them,
+including a saved index, to the wrong place. Analyzer's bmpOffsetCheck() is
+what compares the walked positions to the stored ones.
+
+Nothing is printed while opening, so anything wrong w/ the file (a failed
+header check, a bad count, a short file) is thrown as an IOException instead.
+
+Development Priority: MEDIUM
+*/
+public class NORIReader
+{
+// class variables
+private NORI nf = new NORI();
+private ByteBuffer bb;
+private int[] structPos, animPos;
+private int[][] framePos;// per animation, filled in when first needed
+private static final Charset UTF8=StandardCharsets.UTF_8;
+private static final Charset EUC_KR=Charset.forName("EUC-KR");
+
+// constructor for NORIReader class, nFileBB is an uncompressed NORI file
+public NORIReader(ByteBuffer nFileBB) throws IOException
+{
+    this(nFileBB,null);
+}
+
+// Same, but the positions are taken from idx (if not null) instead
+public NORIReader(ByteBuffer nFileBB, NORIIndex idx) throws IOException
+{
+    bb = nFileBB.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    bb.position(0);
+    if(bb.capacity() < 84 || bb.getInt(0)!=nf.fsig || bb.getInt(40)!=nf.gsig)
+        throw new IOException("Not a NORI file");
+    // The headers, palette & bmpOffsets, w/o any of the usual output
+    PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+    try
+    {
+        Analyzer a = new Analyzer(bb.duplicate().order(ByteOrder.LITTLE_ENDIAN),
+                                  nf,true,quiet);
+        if(idx!=null)
+        {
+            structPos = idx.structPos;
+            animPos = idx.animPos;
+            framePos = idx.framePos.clone();
+            return;
+        }
+        indexStructs();
+        indexAnims();
+    }
+    catch(RuntimeException ex)
+    {
+        throw new IOException("Bad NORI file: "+ex,ex);
+    }
+}
+
+// Maps (and inflates, if zlib wrapped) a NORI file & opens a reader for it
+public static NORIReader open(File nFile) throws IOException
+{
+    PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+    ByteBuffer bb = Batch.zInflate(Batch.mapFile(nFile),quiet);
+    if(Options.idxDir==null) return new NORIReader(bb);
+    return new NORIReader(bb,NORIIndex.get(nFile,bb,quiet));
+}
+
+// The NORI w/ the header fields & palette set (the arrays are left empty)
+public NORI getNORI()
+{
+    return nf;
+}
+
+// Walk the bitmap structures for their positions, the stored bmpOffsets aren't
+// trusted (see the Dev Notes)
+private void indexStructs()
+{
+    structPos = new int[nf.bmpStructs];
+    for(int i=0,p=nf.bpos; i < nf.bmpStructs; i++)
+    {
+        structPos[i] = p;
+        int count = bb.getInt(p);
+        p += 4;
+        for(int x=0; x < count; x++)
+        {
+            p += 24+dataSize(p);
+        }
+    }
+}
+
+private void indexAnims()
+{
+    int start = animStart(), apos = start+4*nf.anims;
+    animPos = new int[nf.anims];
+    framePos = new int[nf.anims][];
+    for(int a=0; a < nf.anims; a++)
+    {
+        animPos[a] = apos+bb.getInt(start+4*a);
+    }
+}
+
+// Where the animOffsets are, i.e. the end of the GAWI section
+private int animStart()
+{
+    if(nf.gsize!=0) return 40+nf.gsize;
+    // the same fix as NORI.fixGawiHeader, asize = woGawi-40
+    return bb.capacity()-(nf.woGawi-40);
+}
+
+/*########################################################################*/
+/*############################# BITMAPS ##################################*/
+
+public int bmpStructs()
+{
+    return nf.bmpStructs;
+}
+
+// The # of bitmaps in bmpStruct s
+public int bmpCount(int s)
+{
+    return bb.getInt(structPos[s]);
+}
+
+// {dataLength, w, h, bParam4, bmp_x, bmp_y} of bitmap sub (from 0) of struct s
+public int[] bmpSpecs(int s, int sub)
+{
+    int p = bmpPos(s,sub);
+    int[] specs = new int[6];
+    for(int i=0; i < 6; i++)
+    {
+        specs[i] = bb.getInt(p+4*i);
+    }
+    return specs;
+}
+
+// The bitmap's data as stored (RLE if compressed), a view w/o any copying
+public ByteBuffer bitmapData(int s, int sub)
+{
+    int p = bmpPos(s,sub);
+    ByteBuffer data = bb.duplicate();
+    data.position(p+24).limit(p+24+dataSize(p));
+    return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+}
+
+// The bitmap's pixels: top-down, unpadded & decompressed
+public byte[] pixels(int s, int sub) throws DataFormatException
+{
+    int p = bmpPos(s,sub), w = bb.getInt(p+4), h = bb.getInt(p+8);
+    ByteBuffer data = bitmapData(s,sub);
+    byte[] raw = new byte[data.remaining()];
+    data.get(raw);
+    if(nf.compressed!=1) return raw;
+    byte[] px = new byte[w*h*nf.Bpp];
+    RLE.decode(raw,0,raw.length,w,h,nf.Bpp,px,0,w*nf.Bpp);
+    return px;
+}
+
+// Position of bmpStruct s (its bmpCount)
+int structPos(int s)
+{
+    return structPos[s];
+}
+
+// Position of an animation (its title)
+int animPos(int a)
+{
+    return animPos[a];
+}
+
+// Position of a bitmap's specs, the struct's earlier bitmaps are skipped
+int bmpPos(int s, int sub)
+{
+    int count = bmpCount(s);
+    if(sub < 0 || sub >= count)
+        throw new IndexOutOfBoundsException("bmpStruct "+s+" has "+count);
+    int p = structPos[s]+4;
+    for(int x=0; x < sub; x++)
+    {
+        p += 24+dataSize(p);
+    }
+    return p;
+}
+
+// See NORI.dataSize(), p is at the bitmap's specs
+int dataSize(int p)
+{
+    return nf.dataSize(bb.getInt(p),bb.getInt(p+4),bb.getInt(p+8));
+}
+
+/*########################################################################*/
+/*############################ ANIMATIONS ################################*/
+
+public int anims()
+{
+    return nf.anims;
+}
+
+public String title(int a)
+{
+    byte[] ba = new byte[32];
+    bb.get(animPos[a],ba);
+    return xmlStr(ba,EUC_KR);
+}
+
+public int numFrames(int a)
+{
+    return bb.getInt(animPos[a]+32);
+}
+
+public int duration(int a, int f)
+{
+    return bb.getInt(frames(a)[f]);
+}
+
+public int numPlanes(int a, int f)
+{
+    return bb.getInt(frames(a)[f]+4);
+}
+
+// {bmp_id, plane_x, plane_y, opacity, flip, blend_mode, flag_param} per plane
+public int[][] planes(int a, int f)
+{
+    int p = frames(a)[f]+8;
+    int[][] planes = new int[numPlanes(a,f)][7];
+    for(int[] plane : planes)
+    {
+        for(int i=0; i < 7; i++,p+=4)
+        {
+            plane[i] = bb.getInt(p);
+        }
+    }
+    return planes;
+}
+
+// {x, y} per coordinate set, none before NORI version 301
+public int[][] coordSets(int a, int f)
+{
+    if(!nf.notV300) return new int[0][2];
+    int p = bottomPos(a,f);
+    int[][] sets = new int[bb.getInt(p)][2];
+    for(int i=0; i < sets.length; i++)
+    {
+        sets[i][0] = bb.getInt(p+4+8*i);
+        sets[i][1] = bb.getInt(p+8+8*i);
+    }
+    return sets;
+}
+
+public String soundEffect(int a, int f)
+{
+    int p = bottomPos(a,f);
+    if(nf.notV300) p += 4+8*bb.getInt(p);
+    p += nf.cdBlockSize+(nf.hasEB ? nf.ebSize : 0)+44;// to the sfx
+    byte[] ba = new byte[18];
+    bb.get(p,ba);
+    return xmlStr(ba,UTF8).intern();
+}
+
+// Where FrameDataBottom starts, right after the planes
+private int bottomPos(int a, int f)
+{
+    return frames(a)[f]+8+28*numPlanes(a,f);
+}
+
+// The frame positions of an animation, read from its frameOffsets
+synchronized int[] frames(int a)
+{
+    if(framePos[a]==null)
+    {
+        int frames = numFrames(a), fpos = animPos[a]+36+4*frames;
+        int[] pos = new int[frames];
+        for(int f=0; f < frames; f++)
+        {
+            pos[f] = fpos+bb.getInt(animPos[a]+36+4*f);
+        }
+        framePos[a] = pos;
+    }
+    return framePos[a];
+}
+
+// The same decoding & cleanup as Analyzer.newXmlStr()
+private static String xmlStr(byte[] ba, Charset charSet)
+{
+    return Analyzer.xmlStr(ba,charSet);
+}
+}
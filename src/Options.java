@@ -0,0 +1,104 @@
+/*
+Options.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+/**
+Class Description:
+A structure-like class that stores the optional command-line switches. These are
+the arguments that start with a dash, e.g. '-j=4', and may be placed anywhere
+after the mode argument.
+
+Dev Notes:
+Main sets these once, before any work is started, and nothing writes to them
+after that. So every class (and every worker thread) can read them freely.
+
+Development Priority: MEDIUM
+*/
+public class Options
+{
+// class variables
+public static int threads = Runtime.getRuntime().availableProcessors();
+public static boolean parBmp = false;
+public static boolean nativeBmp = false;
+public static boolean png = false;
+public static int pngLevel = 1, pngFilter = -1;
+public static String arType = null, arFile = null;
+public static int arLevel = 1;
+public static String idxDir = null;// "" = next to each NORI file
+public static boolean binCfg = false;
+public static int zLevel = 6, zStrategy = 0;// Deflater level & strategy
+
+// Sets a single option from its argument, returns false if it is not valid
+public static boolean set(String opt)
+{
+    String key = opt.substring(1), val = "";
+    int eq = key.indexOf('=');
+    if(eq >= 0)
+    {
+        val = key.substring(eq+1);
+        key = key.substring(0,eq);
+    }
+    try
+    {
+        switch(key)
+        {
+        case "j":
+            threads = Integer.parseInt(val);
+            return threads > 0;
+        case "p":
+            parBmp = true;
+            return val.isEmpty();
+        case "n":
+            nativeBmp = true;
+            return val.isEmpty();
+        case "png":
+            png = true;
+            if(!val.isEmpty()) pngLevel = Integer.parseInt(val);
+            return pngLevel >= 0 && pngLevel <= 9;
+        case "zip":
+            arType = "zip";
+            if(!val.isEmpty()) arLevel = Integer.parseInt(val);
+            return arLevel >= 0 && arLevel <= 9;
+        case "tar":
+            arType = "tar";
+            return val.isEmpty();
+        case "ar":
+            arFile = val;
+            if(arType==null) arType = val.endsWith(".tar") ? "tar" : "zip";
+            return !val.isEmpty();
+        case "idx":
+            idxDir = val;
+            return true;
+        case "bin":
+            binCfg = true;
+            return val.isEmpty();
+        case "zl":
+            zLevel = Integer.parseInt(val);
+            return zLevel >= 0 && zLevel <= 9;
+        case "zs":
+            zStrategy = Integer.parseInt(val);
+            return zStrategy >= 0 && zStrategy <= 2;// up to HUFFMAN_ONLY
+        case "pf":
+            pngFilter = Integer.parseInt(val);
+            return pngFilter >= 0 && pngFilter <= PNG.ADAPTIVE;
+        default:
+            return false;
+        }
+    }
+    catch(NumberFormatException ex)
+    {
+        return false;
+    }
+}
+}
@@ -0,0 +1,284 @@
+/*
+PNG.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.util.stream.*;
+import java.util.zip.*;
+/**
+Class Description:
+The PNG class turns extracted bitmaps into PNG images, as a much smaller
+alternative to the BMP output of JBL. 8-bit bitmaps become indexed PNGs with the
+NORI palette, everything else becomes 24-bit RGB.
+
+Dev Notes:
+The neon pink background (255,0,255) is the game's transparency color key, so
+it is written as a tRNS chunk. Viewers & editors then show it as transparent,
+without the file needing a full alpha channel.
+
+Big images are deflated in chunks at the same time (the same trick as pigz).
+Each chunk gets the last 32KB of the data before it as its dictionary & is
+ended with a sync flush, so the chunks can simply be joined into one stream.
+The rows are filtered at the same time too, since each row only depends on the
+unfiltered row above it. Small images are a single chunk & no threads are used.
+
+Development Priority: MEDIUM
+*/
+public class PNG
+{
+// class variables
+private static final byte[] sig = {(byte)137,80,78,71,13,10,26,10};
+public static final int NONE=0,SUB=1,UP=2,AVG=3,PAETH=4,ADAPTIVE=5;
+public static int chunk = 1<<17;// filtered bytes per deflate job
+private static ThreadLocal<Deflater> deflaters =
+    ThreadLocal.withInitial(() -> new Deflater(6,true));
+private int level, filter;
+
+// constructor for PNG class, filter < 0 picks the usual one for the type
+public PNG(int deflateLevel, int filterType)
+{
+    level = deflateLevel;
+    filter = filterType;
+}
+
+// Encodes top-down, unpadded pixels. Bpp 1 = palette indexes (the palette is
+// in JBL's b,g,r order), Bpp 3 = b,g,r pixels as made by JBL.toRGB24.
+public byte[] encode(byte[] px, int w, int h, int Bpp, byte[][] palette)
+throws IOException
+{
+    // No filter for indexed (as PNG recommends). For RGB, SUB compresses the
+    // game's sprites about as well as ADAPTIVE does, at a fraction of the cost.
+    int ft = filter >= 0 ? filter : (Bpp==1 ? NONE : SUB);
+    byte[] raw = filterRows(px,w,h,Bpp,ft);
+    byte[] zData = deflate(raw);
+    ByteArrayOutputStream png = new ByteArrayOutputStream(zData.length+1200);
+    png.write(sig);
+    ByteBuffer ihdr = mkBEBB(new byte[13]);
+    ihdr.putInt(w);
+    ihdr.putInt(h);
+    ihdr.put((byte)8);// bits per channel/index
+    ihdr.put((byte)(Bpp==1 ? 3 : 2));// color type: indexed or RGB
+    // compression, filter, interlace methods (the only ones there are)
+    ihdr.put((byte)0).put((byte)0).put((byte)0);
+    writeChunk(png,"IHDR",ihdr.array());
+    if(Bpp==1)
+    {
+        byte[] plte = new byte[768];
+        for(int i=0; i < 256; i++)
+        {
+            plte[i*3] = palette[i][2];
+            plte[i*3+1] = palette[i][1];
+            plte[i*3+2] = palette[i][0];
+        }
+        writeChunk(png,"PLTE",plte);
+        // index 0 is the background, & the only transparent color
+        writeChunk(png,"tRNS",new byte[]{0});
+    }
+    else
+    {
+        // the neon pink color key, as 16-bit r, g, b samples
+        writeChunk(png,"tRNS",new byte[]{0,(byte)255,0,0,0,(byte)255});
+    }
+    writeChunk(png,"IDAT",zData);
+    writeChunk(png,"IEND",new byte[0]);
+    return png.toByteArray();
+}
+
+// Makes the PNG image data: each row is a filter type byte & the filtered row
+private byte[] filterRows(byte[] px, int w, int h, int Bpp, int ft)
+{
+    int line = w*Bpp, rowLen = line+1;
+    byte[] img = px;
+    if(Bpp==3)
+    {
+        // PNG wants r,g,b, the bitmap data is b,g,r
+        img = new byte[line*h];
+        for(int i=0; i < line*h; i+=3)
+        {
+            img[i] = px[i+2];
+            img[i+1] = px[i+1];
+            img[i+2] = px[i];
+        }
+    }
+    byte[] raw = new byte[rowLen*h];
+    final byte[] rgb = img;
+    IntStream rows = IntStream.range(0,h);
+    if(raw.length > chunk) rows = rows.parallel();
+    rows.forEach(i -> filterRow(rgb,i,line,Bpp,ft,raw,i*rowLen));
+    return raw;
+}
+
+// Filters row i into raw[off] (type byte first). ADAPTIVE tries each filter &
+// keeps the one with the lowest sum of absolute (signed) values.
+private void filterRow(byte[] img, int i, int line, int Bpp, int ft,
+                       byte[] raw, int off)
+{
+    int cur = i*line, prev = (i==0) ? -1 : cur-line;
+    if(ft==ADAPTIVE)
+    {
+        byte[] tmp = new byte[line];
+        long best = Long.MAX_VALUE;
+        for(int f=NONE; f <= PAETH; f++)
+        {
+            applyFilter(f,img,cur,prev,line,Bpp,tmp,0);
+            long sum = 0;
+            for(int x=0; x < line; x++) sum += Math.abs(tmp[x]);
+            if(sum < best)
+            {
+                best = sum;
+                ft = f;
+            }
+        }
+    }
+    raw[off] = (byte)ft;
+    applyFilter(ft,img,cur,prev,line,Bpp,raw,off+1);
+}
+
+// The 5 PNG filters, prev < 0 means there is no row above (all zeros).
+// Each gets its own loop, so there is no per-byte branching on the type.
+private static void applyFilter(int f, byte[] img, int cur, int prev,
+                                int line, int Bpp, byte[] dst, int off)
+{
+    // with no row above, UP is NONE, AVG only uses left & PAETH is SUB
+    if(prev < 0 && f==UP) f = NONE;
+    if(prev < 0 && f==PAETH) f = SUB;
+    int x = 0;
+    switch(f)
+    {
+    case SUB:
+        System.arraycopy(img,cur,dst,off,Bpp);
+        for(x=Bpp; x < line; x++)
+            dst[off+x] = (byte)(img[cur+x]-img[cur+x-Bpp]);
+        break;
+    case UP:
+        for(; x < line; x++)
+            dst[off+x] = (byte)(img[cur+x]-img[prev+x]);
+        break;
+    case AVG:
+        for(; x < Bpp; x++)
+        {
+            int b = (prev < 0) ? 0 : img[prev+x] & 0xFF;
+            dst[off+x] = (byte)(img[cur+x]-(b >> 1));
+        }
+        for(; x < line; x++)
+        {
+            int a = img[cur+x-Bpp] & 0xFF;
+            int b = (prev < 0) ? 0 : img[prev+x] & 0xFF;
+            dst[off+x] = (byte)(img[cur+x]-((a+b) >> 1));
+        }
+        break;
+    case PAETH:
+        // a & c are 0 for the first pixel, so the predictor is just b
+        for(; x < Bpp; x++)
+            dst[off+x] = (byte)(img[cur+x]-img[prev+x]);
+        for(; x < line; x++)
+        {
+            int a = img[cur+x-Bpp] & 0xFF, b = img[prev+x] & 0xFF;
+            int c = img[prev+x-Bpp] & 0xFF;
+            dst[off+x] = (byte)(img[cur+x]-paeth(a,b,c));
+        }
+        break;
+    default:
+        System.arraycopy(img,cur,dst,off,line);
+        break;
+    }
+}
+
+// The Paeth predictor: whichever of left, up, up-left is closest to a+b-c
+private static int paeth(int a, int b, int c)
+{
+    int p = a+b-c, pa = Math.abs(p-a), pb = Math.abs(p-b), pc = Math.abs(p-c);
+    if(pa <= pb && pa <= pc) return a;
+    if(pb <= pc) return b;
+    return c;
+}
+
+// Deflates the image data into a zlib stream, one job per chunk
+private byte[] deflate(byte[] raw) throws IOException
+{
+    int jobs = Math.max(1,(raw.length+chunk-1)/chunk);
+    byte[][] parts = new byte[jobs][];
+    IntStream ids = IntStream.range(0,jobs);
+    if(jobs > 1) ids = ids.parallel();
+    ids.forEach(j -> parts[j] = deflateChunk(raw,j,jobs));
+    ByteArrayOutputStream z = new ByteArrayOutputStream(raw.length/2+64);
+    // zlib header: deflate w/ 32KB window, the level hint & its check bits
+    z.write(0x78);
+    z.write(level < 2 ? 0x01 : level < 6 ? 0x5E : level==6 ? 0x9C : 0xDA);
+    for(byte[] p : parts) z.write(p);
+    Adler32 adler = new Adler32();
+    adler.update(raw);
+    z.write(mkBEBB(new byte[4]).putInt((int)adler.getValue()).array());
+    return z.toByteArray();
+}
+
+// Deflates chunk j as raw deflate data, primed with the 32KB before it
+private byte[] deflateChunk(byte[] raw, int j, int jobs)
+{
+    int off = j*chunk, len = Math.min(chunk,raw.length-off);
+    Deflater def = deflaters.get();
+    def.reset();
+    def.setLevel(level);
+    if(off > 0)
+    {
+        int dict = Math.min(off,32768);
+        def.setDictionary(raw,off-dict,dict);
+    }
+    def.setInput(raw,off,len);
+    ByteArrayOutputStream part = new ByteArrayOutputStream(len/2+64);
+    byte[] buf = new byte[Zlib.chunk];
+    if(j==jobs-1)
+    {
+        def.finish();
+        while(!def.finished())
+        {
+            part.write(buf,0,def.deflate(buf));
+        }
+    }
+    else
+    {
+        // a full buffer means there may be more output waiting, & a level
+        // change can make a call return before all the input is used up
+        int n;
+        do
+        {
+            n = def.deflate(buf,0,buf.length,Deflater.SYNC_FLUSH);
+            part.write(buf,0,n);
+        }
+        while(n==buf.length || !def.needsInput());
+    }
+    return part.toByteArray();
+}
+
+// Writes a chunk: length, type, data, then the CRC of the type & data
+private static void writeChunk(ByteArrayOutputStream png, String type,
+                               byte[] data) throws IOException
+{
+    byte[] t = type.getBytes("US-ASCII");
+    CRC32 crc = new CRC32();
+    crc.update(t);
+    crc.update(data);
+    png.write(mkBEBB(new byte[4]).putInt(data.length).array());
+    png.write(t);
+    png.write(data);
+    png.write(mkBEBB(new byte[4]).putInt((int)crc.getValue()).array());
+}
+
+// An anti-duplication + better readability function, PNG is big-endian
+private static ByteBuffer mkBEBB(byte[] ba)
+{
+    return ByteBuffer.wrap(ba).order(ByteOrder.BIG_ENDIAN);
+}
+}
@@ -0,0 +1,236 @@
+/*
+RLE.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.util.stream.*;
+import java.util.zip.*;
+/**
+Class Description:
+The RLE class handles the run-length encoding used by compressed NORI files
+(compressed==1). Each scanline is an encodedSize short (which counts itself),
+then pairs of bg & fg shorts, each pair followed by fg pixels of data. bg is the
+# of background (color key) pixels to place before those fg pixels.
+
+Dev Notes:
+Everything works on array indices, no ByteBuffers & no allocations per run. The
+background is filled by copying from a premade row of color key pixels, and the
+foreground data is copied in one go, straight from the input.
+
+Rows are written to dst[off + row*stride], so the caller decides the layout.
+A stride of w*Bpp gives plain top-down pixels, a negative stride of the padded
+scanline size writes straight into a bottom-up BMP.
+
+Because every row starts with its own size, the start of each row can be found
+by hopping from size to size (rowIndex). Big bitmaps (map backgrounds) use that
+to decode all of their rows at the same time, small ones aren't worth it.
+
+Encoding (for Create) is the reverse: runs of color key pixels become bg, runs
+of anything else become fg & are copied as is. Every row ends on a (bg,0) pair
+if it ends in background, so each row covers the full width, like the game's.
+
+Every count is checked against the row & the input, so a damaged bitmap throws
+a DataFormatException instead of looping off into the rest of the file. A row
+whose runs stop short of w is filled up with background.
+
+Development Priority: HIGH
+*/
+public class RLE
+{
+// class variables
+// the color keys (neon pink, palette index 0 for 8-bit) by Bpp
+private static final byte[][] keys = {{},{0},{31,124},{(byte)255,0,(byte)255}};
+// rows of color key pixels to copy the background from, grown as needed
+private static volatile byte[][] keyRows = new byte[4][0];
+// bitmaps with at least this many pixels have their rows decoded in parallel
+public static int parPixels = 1 << 18;
+
+// Decodes the w*h bitmap found in in[pos] to in[end] into dst (see above)
+public static void decode(byte[] in, int pos, int end, int w, int h, int Bpp,
+                          byte[] dst, int off, int stride)
+throws DataFormatException
+{
+    if((long)w*h >= parPixels && h > 1)
+    {
+        decodeParallel(in,pos,end,w,h,Bpp,dst,off,stride);
+        return;
+    }
+    for(int i=0; i < h; i++)
+    {
+        pos = decodeRow(in,pos,end,i,w,Bpp,dst,off+i*stride);
+    }
+}
+
+// Finds where each row starts, entry h is the end of the last row
+public static int[] rowIndex(byte[] in, int pos, int end, int h)
+throws DataFormatException
+{
+    int[] starts = new int[h+1];
+    for(int i=0; i < h; i++)
+    {
+        if(pos+2 > end) throw bad(i,"is missing");
+        starts[i] = pos;
+        pos += Math.max(getShort(in,pos),2);
+    }
+    if(pos > end) throw bad(h-1,"runs past the end of the bitmap");
+    starts[h] = pos;
+    return starts;
+}
+
+// The same as decode(), but all rows at once, each from its indexed start
+private static void decodeParallel(byte[] in, int pos, int end, int w, int h,
+                                   int Bpp, byte[] dst, int off, int stride)
+throws DataFormatException
+{
+    int[] starts = rowIndex(in,pos,end,h);
+    DataFormatException[] err = new DataFormatException[1];
+    IntStream.range(0,h).parallel().forEach(i ->
+    {
+        try
+        {
+            decodeRow(in,starts[i],starts[i+1],i,w,Bpp,dst,off+i*stride);
+        }
+        catch(DataFormatException ex)
+        {
+            err[0] = ex;
+        }
+    });
+    if(err[0]!=null) throw err[0];
+}
+
+// Decodes the row starting at in[pos] into dst[rowOff], returns the position of
+// the next row
+public static int decodeRow(byte[] in, int pos, int end, int row, int w,
+                            int Bpp, byte[] dst, int rowOff)
+throws DataFormatException
+{
+    byte[] key = keyRow(w,Bpp);
+    if(pos+2 > end) throw bad(row,"is missing");
+    // encodedSize counts its own 2 bytes, anything under 2 is an empty row
+    int rowEnd = pos+Math.max(getShort(in,pos),2);
+    if(rowEnd > end) throw bad(row,"runs past the end of the bitmap");
+    pos += 2;
+    int x = 0, line = w*Bpp;
+    while(pos < rowEnd)
+    {
+        if(pos+4 > rowEnd) throw bad(row,"has a cut off run");
+        int bg = getShort(in,pos), fg = getShort(in,pos+2);
+        pos += 4;
+        if(bg < 0 || fg < 0 || bg+fg > w-x/Bpp)
+            throw bad(row,"is wider than the bitmap ("+w+")");
+        int bgLen = bg*Bpp, fgLen = fg*Bpp;
+        if(pos+fgLen > rowEnd) throw bad(row,"has more pixels than data");
+        System.arraycopy(key,0,dst,rowOff+x,bgLen);
+        x += bgLen;
+        System.arraycopy(in,pos,dst,rowOff+x,fgLen);
+        x += fgLen;
+        pos += fgLen;
+    }
+    // whatever the runs didn't cover is background
+    System.arraycopy(key,0,dst,rowOff+x,line-x);
+    return pos;
+}
+
+// Encodes w*h top-down, unpadded pixels from px[off]. Returns null if a row
+// doesn't fit in its encodedSize short, since the bitmap can't be RLE then.
+public static byte[] encode(byte[] px, int off, int w, int h, int Bpp)
+{
+    // worst case: every other pixel is background
+    byte[] row = new byte[2+4*(w/2+2)+w*Bpp];
+    ByteArrayOutputStream enc = new ByteArrayOutputStream(w*h*Bpp/2+2*h);
+    for(int i=0; i < h; i++)
+    {
+        int len = encodeRow(px,off+i*w*Bpp,w,Bpp,row);
+        if(len > Short.MAX_VALUE) return null;
+        enc.write(row,0,len);
+    }
+    return enc.toByteArray();
+}
+
+// Encodes one row into row[], returns the encodedSize
+private static int encodeRow(byte[] px, int p, int w, int Bpp, byte[] row)
+{
+    int x = 0, n = 2;
+    while(x < w)
+    {
+        int bg = 0, fg = 0;
+        while(x < w && isKey(px,p+x*Bpp,Bpp))
+        {
+            bg++;
+            x++;
+        }
+        int fgStart = p+x*Bpp;
+        while(x < w && !isKey(px,p+x*Bpp,Bpp))
+        {
+            fg++;
+            x++;
+        }
+        putShort(row,n,bg);
+        putShort(row,n+2,fg);
+        System.arraycopy(px,fgStart,row,n+4,fg*Bpp);
+        n += 4+fg*Bpp;
+    }
+    putShort(row,0,n);
+    return n;
+}
+
+// Whether the pixel at px[p] is the color key, Bpp doesn't change within a
+// bitmap, so the JIT only ever sees one case per loop
+private static boolean isKey(byte[] px, int p, int Bpp)
+{
+    switch(Bpp)
+    {
+    case 1: return px[p]==0;
+    case 2: return px[p]==31 && px[p+1]==124;
+    default: return px[p]==-1 && px[p+1]==0 && px[p+2]==-1;
+    }
+}
+
+// A row of at least w color key pixels for the Bpp
+private static byte[] keyRow(int w, int Bpp)
+{
+    byte[] row = keyRows[Bpp];
+    if(row.length >= w*Bpp) return row;
+    // a bigger row, filled by doubling the copied part each time
+    row = new byte[Integer.highestOneBit(Math.max(w,64))*2*Bpp];
+    System.arraycopy(keys[Bpp],0,row,0,Bpp);
+    for(int n=Bpp; n < row.length; n*=2)
+    {
+        System.arraycopy(row,0,row,n,Math.min(n,row.length-n));
+    }
+    byte[][] rows = keyRows.clone();
+    rows[Bpp] = row;
+    keyRows = rows;
+    return row;
+}
+
+// A little-endian signed short, like ByteBuffer.getShort()
+private static int getShort(byte[] ba, int pos)
+{
+    return (short)((ba[pos] & 0xFF) | ba[pos+1] << 8);
+}
+
+// An anti-duplication + better readability function
+private static void putShort(byte[] ba, int pos, int val)
+{
+    ba[pos] = (byte)val;
+    ba[pos+1] = (byte)(val >> 8);
+}
+
+// An anti-duplication + better readability function
+private static DataFormatException bad(int row, String problem)
+{
+    return new DataFormatException("RLE scanline #"+row+" "+problem);
+}
+}
@@ -0,0 +1,142 @@
+/*
+Zlib.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2024 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.util.zip.*;
+/**
+Class Description:
+The Zlib class handles the zlib wrapped NORI format. That is the 12 byte 0xB0A0
+header (signature, actual size, compressed size) followed by a zlib stream.
+See the top of 'NORI_format.md' for the details.
+
+Dev Notes:
+The native Inflater is expensive to make & has to be end()ed, so each thread
+keeps one and resets it for every file instead. Batch's worker threads live for
+the whole batch, so a batch of thousands of files only ever makes a handful.
+
+Deflating works the same way, with one raw (no header) Deflater & one zlib
+Deflater per thread. Create mode feeds its Deflater a buffer at a time & patches
+the compressed size into the header once the stream is finished, so neither the
+file nor its compressed data is ever held in memory (or has to fit in a buffer
+guessed ahead of time).
+
+The data is inflated in chunks straight into the buffer given by the caller,
+which can be a heap buffer or a mapped region of a file. Every chunk is checked,
+so a damaged stream is reported instead of being silently cut short.
+
+Development Priority: MEDIUM
+*/
+public class Zlib
+{
+// class variables
+public static int sig=41136;// xB0A00000
+public static int hdrSize=12;
+public static int chunk=1<<16;
+private static ThreadLocal<Inflater> inflaters =
+    ThreadLocal.withInitial(Inflater::new);
+private static ThreadLocal<Deflater> rawDeflaters =
+    ThreadLocal.withInitial(() -> new Deflater(6,true));
+private static ThreadLocal<Deflater> deflaters =
+    ThreadLocal.withInitial(Deflater::new);
+
+// Checks for the zlib wrapper: not a NORI signature & a zlib magic byte
+public static boolean isWrapped(ByteBuffer in)
+{
+    return in.capacity() > hdrSize && in.getInt(0)!=1230131022 &&
+           in.get(hdrSize)==0x78;
+}
+
+// The decompressed size stored in the wrapper header
+public static int actualSize(ByteBuffer in)
+{
+    return in.getInt(4);
+}
+
+// Inflates the wrapped zlib stream in 'in' into 'dst', starting at the current
+// position of dst. Returns the # of bytes inflated.
+public static int inflate(ByteBuffer in, ByteBuffer dst)
+throws DataFormatException
+{
+    Inflater inf = inflaters.get();
+    inf.reset();
+    // Inflater expects the zlib header to be included
+    ByteBuffer zData = in.duplicate();
+    zData.position(hdrSize);
+    zData.limit(Math.min(in.capacity(),hdrSize+in.getInt(8)));
+    inf.setInput(zData);
+    int start = dst.position(), end = dst.limit();
+    try
+    {
+        while(!inf.finished())
+        {
+            if(dst.position()==end)
+                throw new DataFormatException("Data larger than "+(end-start));
+            // Only hand the inflater one chunk of the output at a time
+            dst.limit(Math.min(end,dst.position()+chunk));
+            if(inf.inflate(dst)==0)
+            {
+                if(inf.needsDictionary())
+                    throw new DataFormatException("Needs a preset dictionary");
+                if(inf.needsInput())
+                    throw new DataFormatException("Compressed data is cut off");
+            }
+        }
+    }
+    finally
+    {
+        dst.limit(end);
+    }
+    return dst.position()-start;
+}
+
+// Deflates the whole array as raw deflate data (no zlib header or checksum),
+// which is what ZIP entries use
+public static byte[] deflateRaw(byte[] data, int level)
+{
+    Deflater def = rawDeflaters.get();
+    def.reset();
+    def.setLevel(level);
+    def.setInput(data);
+    def.finish();
+    ByteArrayOutputStream zData = new ByteArrayOutputStream(data.length/2+64);
+    byte[] buf = new byte[chunk];
+    while(!def.finished())
+    {
+        zData.write(buf,0,def.deflate(buf));
+    }
+    return zData.toByteArray();
+}
+
+// This thread's zlib Deflater, reset & set up for a new stream
+public static Deflater deflater(int level, int strategy)
+{
+    Deflater def = deflaters.get();
+    def.reset();
+    def.setLevel(level);
+    def.setStrategy(strategy);
+    return def;
+}
+
+// Reports the sizes and speed of a (de)compression, MB/s is of the big side
+public static void printRate(PrintStream out, String verb, long inSize,
+                             long outSize, long startNanos)
+{
+    double ms = (System.nanoTime()-startNanos)/1e6;
+    double mbps = (Math.max(inSize,outSize)/1048576.0)/(ms/1000);
+    out.printf("%s %d -> %d bytes in %.2f ms (%.2f MB/s)%n",
+               verb,inSize,outSize,ms,mbps);
+}
+}